@@ -17,57 +17,182 @@
 package net.micode.notes.data;
 
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Data;
 import android.telephony.PhoneNumberUtils;
-import android.util.Log;
+import android.text.TextUtils;
+import android.util.LruCache;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Looks up the contact names of phone numbers. The names are kept in a bounded cache which
+ * also remembers the numbers without contact, and is cleared when the contacts change. All
+ * methods can be called from any thread, only {@link #getCachedContact} is safe on the UI
+ * thread.
+ */
 public class Contact {
-    private static HashMap<String, String> sContactCache;
-    private static final String TAG = "Contact";
+    private static final int MAX_CACHED_CONTACTS = 256;
+
+    /**
+     * Numbers looked up by one query, each number takes two arguments of the selection
+     */
+    private static final int MAX_NUMBERS_PER_QUERY = 50;
+
+    /**
+     * Cached for a number without contact, so it is not looked up again
+     */
+    private static final String NO_CONTACT = "";
+
+    private static final LruCache<String, String> sContactCache = new LruCache<String, String>(
+            MAX_CACHED_CONTACTS);
 
-    private static final String CALLER_ID_SELECTION = "PHONE_NUMBERS_EQUAL(" + Phone.NUMBER
-    + ",?) AND " + Data.MIMETYPE + "='" + Phone.CONTENT_ITEM_TYPE + "'"
-    + " AND " + Data.RAW_CONTACT_ID + " IN "
-            + "(SELECT raw_contact_id "
-            + " FROM phone_lookup"
-            + " WHERE min_match = '+')";
+    private static ContentObserver sContactsObserver;
+
+    /**
+     * Increased when the contacts change, names looked up before are not cached afterwards
+     */
+    private static int sGeneration;
+
+    private static final String[] CALLER_ID_PROJECTION = new String [] {
+        Phone.NUMBER,
+        Phone.DISPLAY_NAME
+    };
+
+    /**
+     * Get the contact name already looked up without querying
+     * @return the name, an empty string if the number has no contact, or null if the number
+     *         has not been looked up
+     */
+    public static String getCachedContact(String phoneNumber) {
+        return sContactCache.get(phoneNumber);
+    }
 
     public static String getContact(Context context, String phoneNumber) {
-        if(sContactCache == null) {
-            sContactCache = new HashMap<String, String>();
+        return getContacts(context, Collections.singletonList(phoneNumber)).get(phoneNumber);
+    }
+
+    /**
+     * Get the contact names of the phone numbers, the numbers not cached are looked up
+     * together instead of one query for each
+     * @return the names keyed by phone number, numbers without contact are left out
+     */
+    public static Map<String, String> getContacts(Context context,
+            Collection<String> phoneNumbers) {
+        registerContactsObserver(context);
+
+        HashMap<String, String> names = new HashMap<String, String>();
+        LinkedHashSet<String> missing = new LinkedHashSet<String>();
+        for (String phoneNumber : phoneNumbers) {
+            if (TextUtils.isEmpty(phoneNumber)) {
+                continue;
+            }
+            String name = sContactCache.get(phoneNumber);
+            if (name == null) {
+                missing.add(phoneNumber);
+            } else if (!NO_CONTACT.equals(name)) {
+                names.put(phoneNumber, name);
+            }
+        }
+        if (missing.isEmpty()) {
+            return names;
+        }
+
+        int generation = getGeneration();
+        List<String> numbers = new ArrayList<String>(missing);
+        for (int start = 0; start < numbers.size(); start += MAX_NUMBERS_PER_QUERY) {
+            queryContacts(context, numbers.subList(start,
+                    Math.min(numbers.size(), start + MAX_NUMBERS_PER_QUERY)), names);
         }
 
-        if(sContactCache.containsKey(phoneNumber)) {
-            return sContactCache.get(phoneNumber);
+        synchronized (Contact.class) {
+            if (generation == sGeneration) {
+                for (String phoneNumber : numbers) {
+                    String name = names.get(phoneNumber);
+                    sContactCache.put(phoneNumber, name != null ? name : NO_CONTACT);
+                }
+            }
+        }
+        return names;
+    }
+
+    private static void queryContacts(Context context, List<String> phoneNumbers,
+            Map<String, String> names) {
+        int count = phoneNumbers.size();
+        String[] selectionArgs = new String[count * 2];
+        StringBuilder selection = new StringBuilder();
+        selection.append(Data.MIMETYPE).append("='").append(Phone.CONTENT_ITEM_TYPE)
+                .append("' AND (");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                selection.append(" OR ");
+            }
+            selection.append("PHONE_NUMBERS_EQUAL(").append(Phone.NUMBER).append(",?)");
+            selectionArgs[i] = phoneNumbers.get(i);
+        }
+        selection.append(") AND ").append(Data.RAW_CONTACT_ID).append(" IN ")
+                .append("(SELECT raw_contact_id FROM phone_lookup WHERE min_match IN (");
+        for (int i = 0; i < count; i++) {
+            selection.append(i > 0 ? ",?" : "?");
+            selectionArgs[count + i] = PhoneNumberUtils.toCallerIDMinMatch(phoneNumbers.get(i));
         }
+        selection.append("))");
 
-        String selection = CALLER_ID_SELECTION.replace("+",
-                PhoneNumberUtils.toCallerIDMinMatch(phoneNumber));
-        Cursor cursor = context.getContentResolver().query(
-                Data.CONTENT_URI,
-                new String [] { Phone.DISPLAY_NAME },
-                selection,
-                new String[] { phoneNumber },
-                null);
-
-        if (cursor != null && cursor.moveToFirst()) {
-            try {
-                String name = cursor.getString(0);
-                sContactCache.put(phoneNumber, name);
-                return name;
-            } catch (IndexOutOfBoundsException e) {
-                Log.e(TAG, " Cursor get string error " + e.toString());
-                return null;
-            } finally {
-                cursor.close();
+        Cursor cursor = context.getContentResolver().query(Data.CONTENT_URI,
+                CALLER_ID_PROJECTION, selection.toString(), selectionArgs, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String number = cursor.getString(0);
+                String name = cursor.getString(1);
+                if (TextUtils.isEmpty(name)) {
+                    continue;
+                }
+                for (String phoneNumber : phoneNumbers) {
+                    if (!names.containsKey(phoneNumber)
+                            && PhoneNumberUtils.compare(number, phoneNumber)) {
+                        names.put(phoneNumber, name);
+                    }
+                }
             }
-        } else {
-            Log.d(TAG, "No contact matched with number:" + phoneNumber);
-            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static synchronized int getGeneration() {
+        return sGeneration;
+    }
+
+    private static void invalidate() {
+        synchronized (Contact.class) {
+            sGeneration++;
         }
+        sContactCache.evictAll();
+    }
+
+    private static synchronized void registerContactsObserver(Context context) {
+        if (sContactsObserver != null) {
+            return;
+        }
+        sContactsObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        };
+        context.getApplicationContext().getContentResolver().registerContentObserver(
+                ContactsContract.AUTHORITY_URI, true, sContactsObserver);
     }
 }
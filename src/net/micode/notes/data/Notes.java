@@ -42,6 +42,13 @@ public class Notes {
     public static final String INTENT_EXTRA_FOLDER_ID = "net.micode.notes.folder_id";
     public static final String INTENT_EXTRA_CALL_DATE = "net.micode.notes.call_date";
 
+    /**
+     * Methods of {@link android.content.ContentResolver#call} to hold back change
+     * notifications during bulk work such as sync, each suspend must be followed by a resume
+     */
+    public static final String METHOD_SUSPEND_NOTIFICATIONS = "suspend_notifications";
+    public static final String METHOD_RESUME_NOTIFICATIONS = "resume_notifications";
+
     public static final int TYPE_WIDGET_INVALIDE      = -1;
     public static final int TYPE_WIDGET_2X            = 0;
     public static final int TYPE_WIDGET_4X            = 1;
@@ -49,6 +56,7 @@ public class Notes {
     public static class DataConstants {
         public static final String NOTE = TextNote.CONTENT_ITEM_TYPE;
         public static final String CALL_NOTE = CallNote.CONTENT_ITEM_TYPE;
+        public static final String CHECK_LIST_ITEM = CheckListItem.CONTENT_ITEM_TYPE;
     }
 
     /**
@@ -56,11 +64,40 @@ public class Notes {
      */
     public static final Uri CONTENT_NOTE_URI = Uri.parse("content://" + AUTHORITY + "/note");
 
+    /**
+     * Uri to query notes for the notes list, it is the same as {@link #CONTENT_NOTE_URI} but
+     * the rows can also carry {@link #COLUMN_CALL_NUMBER}
+     */
+    public static final Uri CONTENT_NOTE_LIST_URI = Uri.parse("content://" + AUTHORITY + "/note_list");
+
+    /**
+     * The phone number of a call note, empty for other notes. Only available from
+     * {@link #CONTENT_NOTE_LIST_URI}
+     * <P> Type : TEXT </P>
+     */
+    public static final String COLUMN_CALL_NUMBER = "call_number";
+
+    /**
+     * Query parameters of {@link #CONTENT_NOTE_URI} and
+     * {@link #CONTENT_NOTE_LIST_URI} to load a list page by page. With
+     * {@link #PARAM_LIMIT} the rows are ordered by type, modified date and id descending, and
+     * the after parameters give the keys of the last row of previous page.
+     */
+    public static final String PARAM_LIMIT = "limit";
+    public static final String PARAM_AFTER_TYPE = "after_type";
+    public static final String PARAM_AFTER_MODIFIED_DATE = "after_modified_date";
+    public static final String PARAM_AFTER_ID = "after_id";
+
     /**
      * Uri to query data
      */
     public static final Uri CONTENT_DATA_URI = Uri.parse("content://" + AUTHORITY + "/data");
 
+    /**
+     * Uri to query, insert and delete the revisions of the note text
+     */
+    public static final Uri CONTENT_REVISION_URI = Uri.parse("content://" + AUTHORITY + "/revision");
+
     public interface NoteColumns {
         /**
          * The unique ID for a row
@@ -94,7 +131,7 @@ public class Notes {
         public static final String ALERTED_DATE = "alert_date";
 
         /**
-         * Folder's name or text content of note
+         * Folder's name or the head of the text content of note
          * <P> Type: TEXT </P>
          */
         public static final String SNIPPET = "snippet";
@@ -165,6 +202,13 @@ public class Notes {
          * <P> Type : INTEGER (long) </P>
          */
         public static final String VERSION = "version";
+
+        /**
+         * The first line of the snippet without checklist tags, capped for the list row,
+         * for folders it is the folder name. Maintained by the database.
+         * <P> Type : TEXT </P>
+         */
+        public static final String DISPLAY_TITLE = "display_title";
     }
 
     public interface DataColumns {
@@ -241,6 +285,62 @@ public class Notes {
         public static final String DATA5 = "data5";
     }
 
+    /**
+     * A saved revision of the text of a note. A checkpoint holds the whole text, the other
+     * revisions hold the change from the revision before them, as the text which replaced a
+     * range of it.
+     */
+    public interface RevisionColumns {
+        /**
+         * The unique ID for a row, the revisions of a note are in the order of their ids
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String ID = "_id";
+
+        /**
+         * The reference id to the note of the revision
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String NOTE_ID = "note_id";
+
+        /**
+         * Created date of the revision
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String CREATED_DATE = "created_date";
+
+        /**
+         * Count of revisions since the latest checkpoint, 0 for a checkpoint
+         * <P> Type: INTEGER </P>
+         */
+        public static final String DEPTH = "depth";
+
+        /**
+         * Start of the replaced range in the text of the revision before, 0 for a checkpoint
+         * <P> Type: INTEGER </P>
+         */
+        public static final String START = "start";
+
+        /**
+         * Length of the replaced range, 0 for a checkpoint
+         * <P> Type: INTEGER </P>
+         */
+        public static final String DELETE_LENGTH = "delete_length";
+
+        /**
+         * The text which replaced the range, the whole text for a checkpoint
+         * <P> Type: TEXT </P>
+         */
+        public static final String TEXT = "text";
+
+        /**
+         * Hash of the whole text of the revision, to tell whether the stored text of the note
+         * was changed by another writer since
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String CONTENT_HASH = "content_hash";
+    }
+
     public static final class TextNote implements DataColumns {
         /**
          * Mode to indicate the text in check list mode or not
@@ -276,4 +376,29 @@ public class Notes {
 
         public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/call_note");
     }
+
+    /**
+     * An item of a check list note. The text data of a note in {@link TextNote#MODE_CHECK_LIST}
+     * with an empty content is the head of the check list, its items are stored as rows of
+     * this type. A check list text data with content still holds the items as tagged lines,
+     * as written before the items had rows of their own.
+     */
+    public static final class CheckListItem implements DataColumns {
+        /**
+         * Whether the item is checked
+         * <P> Type: INTEGER 1:checked 0:unchecked </P>
+         */
+        public static final String CHECKED = DATA1;
+
+        /**
+         * Position of the item in the list, the items are shown in ascending order. The
+         * positions need not be consecutive.
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String POSITION = DATA2;
+
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/check_list_item";
+
+        public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/check_list_item";
+    }
 }
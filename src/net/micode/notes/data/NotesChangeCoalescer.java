@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Collects the uris changed by {@link NotesProvider} and notifies each of them once, either
+ * after a short quiet window, at the end of a transaction, or when notifications are resumed
+ * after bulk work such as sync
+ */
+class NotesChangeCoalescer {
+    private static final String TAG = "NotesChangeCoalescer";
+
+    private static final long NOTIFY_DELAY_MILLIS = 100;
+
+    /**
+     * Longest time a queued uri waits while more changes keep arriving
+     */
+    private static final long MAX_NOTIFY_LATENCY_MILLIS = 500;
+
+    private final ContentResolver mResolver;
+
+    private final Handler mHandler;
+
+    private final LinkedHashSet<Uri> mPendingUris;
+
+    private int mSuspendCount;
+
+    private boolean mFlushScheduled;
+
+    /**
+     * Uptime when the scheduled flush was first requested
+     */
+    private long mFirstScheduleTime;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        public void run() {
+            synchronized (NotesChangeCoalescer.this) {
+                mFlushScheduled = false;
+            }
+            flush();
+        }
+    };
+
+    public NotesChangeCoalescer(ContentResolver resolver) {
+        mResolver = resolver;
+        mHandler = new Handler(Looper.getMainLooper());
+        mPendingUris = new LinkedHashSet<Uri>();
+        mSuspendCount = 0;
+        mFlushScheduled = false;
+    }
+
+    /**
+     * Queue the uri, it will be notified after {@link #NOTIFY_DELAY_MILLIS} unless more
+     * changes keep arriving in the meantime, and after {@link #MAX_NOTIFY_LATENCY_MILLIS}
+     * at most
+     */
+    public synchronized void add(Uri uri) {
+        addLocked(uri);
+        if (mSuspendCount == 0) {
+            long now = SystemClock.uptimeMillis();
+            if (!mFlushScheduled) {
+                mFirstScheduleTime = now;
+            }
+            long delay = Math.max(0, Math.min(NOTIFY_DELAY_MILLIS,
+                    mFirstScheduleTime + MAX_NOTIFY_LATENCY_MILLIS - now));
+            mHandler.removeCallbacks(mFlushRunnable);
+            mHandler.postDelayed(mFlushRunnable, delay);
+            mFlushScheduled = true;
+        }
+    }
+
+    /**
+     * Queue the uris changed by a committed transaction and notify them right away
+     */
+    public void addAll(Collection<Uri> uris) {
+        synchronized (this) {
+            for (Uri uri : uris) {
+                addLocked(uri);
+            }
+        }
+        flush();
+    }
+
+    public synchronized void suspend() {
+        mSuspendCount++;
+        if (mFlushScheduled) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushScheduled = false;
+        }
+    }
+
+    public void resume() {
+        synchronized (this) {
+            if (mSuspendCount == 0) {
+                Log.w(TAG, "Resume notifications without suspending, should not happen");
+                return;
+            }
+            mSuspendCount--;
+        }
+        flush();
+    }
+
+    public void flush() {
+        List<Uri> uris;
+        synchronized (this) {
+            if (mSuspendCount > 0 || mPendingUris.isEmpty()) {
+                return;
+            }
+            uris = new ArrayList<Uri>(mPendingUris);
+            mPendingUris.clear();
+        }
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Notifying a uri also reaches the observers of its descendants, so a pending ancestor
+     * makes the descendant redundant
+     */
+    private void addLocked(Uri uri) {
+        Iterator<Uri> iter = mPendingUris.iterator();
+        while (iter.hasNext()) {
+            Uri pending = iter.next();
+            if (isAncestorOrSelf(pending, uri)) {
+                return;
+            }
+            if (isAncestorOrSelf(uri, pending)) {
+                iter.remove();
+            }
+        }
+        mPendingUris.add(uri);
+    }
+
+    private static boolean isAncestorOrSelf(Uri ancestor, Uri uri) {
+        if (!ancestor.getAuthority().equals(uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        if (ancestorSegments.size() > segments.size()) {
+            return false;
+        }
+        for (int i = 0; i < ancestorSegments.size(); i++) {
+            if (!ancestorSegments.get(i).equals(segments.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
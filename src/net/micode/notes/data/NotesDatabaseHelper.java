@@ -18,28 +18,70 @@ package net.micode.notes.data;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
+import net.micode.notes.data.Notes.CheckListItem;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.RevisionColumns;
+import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.tool.CheckListUtils;
+
+import java.util.ArrayList;
 
 
 public class NotesDatabaseHelper extends SQLiteOpenHelper {
     private static final String DB_NAME = "note.db";
 
-    private static final int DB_VERSION = 4;
+    private static final int DB_VERSION = 9;
 
     public interface TABLE {
         public static final String NOTE = "note";
 
         public static final String DATA = "data";
+
+        public static final String NOTE_FTS = "note_fts";
+
+        public static final String REVISION = "revision";
     }
 
     private static final String TAG = "NotesDatabaseHelper";
 
+    /**
+     * Pages in the write-ahead log before it is copied back into the database, a sync that
+     * writes more than this is checkpointed in steps instead of at the end
+     */
+    private static final int WAL_AUTO_CHECKPOINT_PAGES = 1000;
+
+    /**
+     * Size in bytes the write-ahead log is truncated to after a checkpoint
+     */
+    private static final int WAL_SIZE_LIMIT = 512 * 1024;
+
+    /**
+     * Characters of the snippet scanned for the display title and the length it is capped to
+     */
+    private static final int DISPLAY_TITLE_SCAN_LENGTH = 256;
+
+    private static final int DISPLAY_TITLE_MAX_LENGTH = 128;
+
+    /**
+     * Characters of the text of a note copied into its snippet, the readers of the snippet
+     * only show its head, and a save of a long note does not copy the whole text once more
+     */
+    private static final int SNIPPET_MAX_LENGTH = 1024;
+
+    /**
+     * The checked and unchecked tags of the checklist mode of the note editor
+     */
+    private static final String CHECKLIST_TAG_CHECKED = "\u221A";
+
+    private static final String CHECKLIST_TAG_UNCHECKED = "\u25A1";
+
     private static NotesDatabaseHelper mInstance;
 
     private static final String CREATE_NOTE_TABLE_SQL =
@@ -60,7 +102,8 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
             NoteColumns.LOCAL_MODIFIED + " INTEGER NOT NULL DEFAULT 0," +
             NoteColumns.ORIGIN_PARENT_ID + " INTEGER NOT NULL DEFAULT 0," +
             NoteColumns.GTASK_ID + " TEXT NOT NULL DEFAULT ''," +
-            NoteColumns.VERSION + " INTEGER NOT NULL DEFAULT 0" +
+            NoteColumns.VERSION + " INTEGER NOT NULL DEFAULT 0," +
+            NoteColumns.DISPLAY_TITLE + " TEXT NOT NULL DEFAULT ''" +
         ")";
 
     private static final String CREATE_DATA_TABLE_SQL =
@@ -78,10 +121,65 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
             DataColumns.DATA5 + " TEXT NOT NULL DEFAULT ''" +
         ")";
 
+    private static final String CREATE_REVISION_TABLE_SQL =
+        "CREATE TABLE IF NOT EXISTS " + TABLE.REVISION + "(" +
+            RevisionColumns.ID + " INTEGER PRIMARY KEY," +
+            RevisionColumns.NOTE_ID + " INTEGER NOT NULL," +
+            RevisionColumns.CREATED_DATE + " INTEGER NOT NULL DEFAULT (strftime('%s','now') * 1000)," +
+            RevisionColumns.DEPTH + " INTEGER NOT NULL DEFAULT 0," +
+            RevisionColumns.START + " INTEGER NOT NULL DEFAULT 0," +
+            RevisionColumns.DELETE_LENGTH + " INTEGER NOT NULL DEFAULT 0," +
+            RevisionColumns.TEXT + " TEXT NOT NULL DEFAULT ''," +
+            RevisionColumns.CONTENT_HASH + " INTEGER NOT NULL DEFAULT 0" +
+        ")";
+
+    /**
+     * Index for reading the revisions of a note in order, and its latest one
+     */
+    private static final String CREATE_REVISION_NOTE_ID_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS revision_note_id_index ON " +
+        TABLE.REVISION + "(" + RevisionColumns.NOTE_ID + "," + RevisionColumns.ID + ");";
+
     private static final String CREATE_DATA_NOTE_ID_INDEX_SQL =
         "CREATE INDEX IF NOT EXISTS note_id_index ON " +
         TABLE.DATA + "(" + DataColumns.NOTE_ID + ");";
 
+    /**
+     * Index for the folder list query, which filters on parent id and orders by type and
+     * modified date
+     */
+    private static final String CREATE_NOTE_PARENT_ID_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS note_parent_type_modified_index ON " +
+        TABLE.NOTE + "(" + NoteColumns.PARENT_ID + "," + NoteColumns.TYPE + "," +
+        NoteColumns.MODIFIED_DATE + ");";
+
+    private static final String CREATE_NOTE_GTASK_ID_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS note_gtask_id_index ON " +
+        TABLE.NOTE + "(" + NoteColumns.GTASK_ID + ");";
+
+    private static final String CREATE_NOTE_WIDGET_ID_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS note_widget_id_index ON " +
+        TABLE.NOTE + "(" + NoteColumns.WIDGET_ID + ");";
+
+    private static final String CREATE_NOTE_ALERTED_DATE_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS note_alert_date_index ON " +
+        TABLE.NOTE + "(" + NoteColumns.ALERTED_DATE + ");";
+
+    /**
+     * Full-text index over the content of {@link DataConstants#NOTE} data, the docid of
+     * each row is the id of the note the content belongs to
+     */
+    private static final String CREATE_NOTE_FTS_TABLE_SQL =
+        "CREATE VIRTUAL TABLE " + TABLE.NOTE_FTS + " USING fts3(" +
+            DataColumns.CONTENT +
+        ")";
+
+    private static final String NOTE_FTS_BACKFILL_SQL =
+        "INSERT INTO " + TABLE.NOTE_FTS + "(docid," + DataColumns.CONTENT + ")" +
+        " SELECT " + DataColumns.NOTE_ID + "," + DataColumns.CONTENT +
+        " FROM " + TABLE.DATA +
+        " WHERE " + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'";
+
     /**
      * Increase folder's note count when move note to the folder
      */
@@ -132,6 +230,36 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         "  AND " + NoteColumns.NOTES_COUNT + ">0;" +
         " END";
 
+    /**
+     * Update note's display title when insert note with snippet, such as a folder
+     */
+    private static final String NOTE_UPDATE_DISPLAY_TITLE_ON_INSERT_TRIGGER =
+        "CREATE TRIGGER update_display_title_on_insert " +
+        " AFTER INSERT ON " + TABLE.NOTE +
+        " WHEN new." + NoteColumns.SNIPPET + "<>''" +
+        " BEGIN " +
+        "  UPDATE " + TABLE.NOTE +
+        "   SET " + NoteColumns.DISPLAY_TITLE + "=" + displayTitleOf("new") +
+        "  WHERE " + NoteColumns.ID + "=new." + NoteColumns.ID + ";" +
+        " END";
+
+    /**
+     * Update note's display title when its snippet has changed
+     */
+    private static final String NOTE_UPDATE_DISPLAY_TITLE_ON_UPDATE_TRIGGER =
+        "CREATE TRIGGER update_display_title_on_update " +
+        " AFTER UPDATE OF " + NoteColumns.SNIPPET + " ON " + TABLE.NOTE +
+        " BEGIN " +
+        "  UPDATE " + TABLE.NOTE +
+        "   SET " + NoteColumns.DISPLAY_TITLE + "=" + displayTitleOf("new") +
+        "  WHERE " + NoteColumns.ID + "=new." + NoteColumns.ID + ";" +
+        " END";
+
+    private static final String NOTE_DISPLAY_TITLE_BACKFILL_SQL =
+        "UPDATE " + TABLE.NOTE +
+        " SET " + NoteColumns.DISPLAY_TITLE + "=" + displayTitleOf(TABLE.NOTE) +
+        " WHERE " + NoteColumns.SNIPPET + "<>''";
+
     /**
      * Update note's content when insert data with type {@link DataConstants#NOTE}
      */
@@ -141,7 +269,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
         " BEGIN" +
         "  UPDATE " + TABLE.NOTE +
-        "   SET " + NoteColumns.SNIPPET + "=new." + DataColumns.CONTENT +
+        "   SET " + NoteColumns.SNIPPET + "=" + snippetOf(noteTextOf("new")) +
         "  WHERE " + NoteColumns.ID + "=new." + DataColumns.NOTE_ID + ";" +
         " END";
 
@@ -154,7 +282,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
         " BEGIN" +
         "  UPDATE " + TABLE.NOTE +
-        "   SET " + NoteColumns.SNIPPET + "=new." + DataColumns.CONTENT +
+        "   SET " + NoteColumns.SNIPPET + "=" + snippetOf(noteTextOf("new")) +
         "  WHERE " + NoteColumns.ID + "=new." + DataColumns.NOTE_ID + ";" +
         " END";
 
@@ -171,6 +299,84 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         "  WHERE " + NoteColumns.ID + "=old." + DataColumns.NOTE_ID + ";" +
         " END";
 
+    /**
+     * Index note's content when insert data with type {@link DataConstants#NOTE}
+     */
+    private static final String DATA_UPDATE_SEARCH_INDEX_ON_INSERT_TRIGGER =
+        "CREATE TRIGGER update_search_index_on_insert " +
+        " AFTER INSERT ON " + TABLE.DATA +
+        " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+        " BEGIN" +
+        "  DELETE FROM " + TABLE.NOTE_FTS +
+        "   WHERE docid=new." + DataColumns.NOTE_ID + ";" +
+        "  INSERT INTO " + TABLE.NOTE_FTS + "(docid," + DataColumns.CONTENT + ")" +
+        "   VALUES(new." + DataColumns.NOTE_ID + "," + noteTextOf("new") + ");" +
+        " END";
+
+    /**
+     * Re-index note's content when data with {@link DataConstants#NOTE} type has changed
+     */
+    private static final String DATA_UPDATE_SEARCH_INDEX_ON_UPDATE_TRIGGER =
+        "CREATE TRIGGER update_search_index_on_update " +
+        " AFTER UPDATE ON " + TABLE.DATA +
+        " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+        " BEGIN" +
+        "  DELETE FROM " + TABLE.NOTE_FTS +
+        "   WHERE docid=old." + DataColumns.NOTE_ID + ";" +
+        "  INSERT INTO " + TABLE.NOTE_FTS + "(docid," + DataColumns.CONTENT + ")" +
+        "   VALUES(new." + DataColumns.NOTE_ID + "," + noteTextOf("new") + ");" +
+        " END";
+
+    /**
+     * Remove note's content from index when data with {@link DataConstants#NOTE} type has deleted
+     */
+    private static final String DATA_UPDATE_SEARCH_INDEX_ON_DELETE_TRIGGER =
+        "CREATE TRIGGER update_search_index_on_delete " +
+        " AFTER DELETE ON " + TABLE.DATA +
+        " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+        " BEGIN" +
+        "  DELETE FROM " + TABLE.NOTE_FTS +
+        "   WHERE docid=old." + DataColumns.NOTE_ID + ";" +
+        " END";
+
+    /**
+     * Update note's content and index when an item is added to a check list stored as items
+     */
+    private static final String DATA_UPDATE_CHECK_LIST_ON_ITEM_INSERT_TRIGGER =
+        "CREATE TRIGGER update_check_list_on_item_insert " +
+        " AFTER INSERT ON " + TABLE.DATA +
+        " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.CHECK_LIST_ITEM + "'" +
+        "  AND " + hasCheckListItems("new." + DataColumns.NOTE_ID) +
+        " BEGIN" +
+        updateCheckListText("new." + DataColumns.NOTE_ID) +
+        " END";
+
+    /**
+     * Update note's content and index when the text or the position of an item of a check
+     * list has changed, checking an item leaves them as they are
+     */
+    private static final String DATA_UPDATE_CHECK_LIST_ON_ITEM_UPDATE_TRIGGER =
+        "CREATE TRIGGER update_check_list_on_item_update " +
+        " AFTER UPDATE OF " + DataColumns.CONTENT + "," + CheckListItem.POSITION +
+        " ON " + TABLE.DATA +
+        " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.CHECK_LIST_ITEM + "'" +
+        "  AND " + hasCheckListItems("new." + DataColumns.NOTE_ID) +
+        " BEGIN" +
+        updateCheckListText("new." + DataColumns.NOTE_ID) +
+        " END";
+
+    /**
+     * Update note's content and index when an item of a check list has been deleted
+     */
+    private static final String DATA_UPDATE_CHECK_LIST_ON_ITEM_DELETE_TRIGGER =
+        "CREATE TRIGGER update_check_list_on_item_delete " +
+        " AFTER DELETE ON " + TABLE.DATA +
+        " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.CHECK_LIST_ITEM + "'" +
+        "  AND " + hasCheckListItems("old." + DataColumns.NOTE_ID) +
+        " BEGIN" +
+        updateCheckListText("old." + DataColumns.NOTE_ID) +
+        " END";
+
     /**
      * Delete datas belong to note which has been deleted
      */
@@ -182,6 +388,17 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         "   WHERE " + DataColumns.NOTE_ID + "=old." + NoteColumns.ID + ";" +
         " END";
 
+    /**
+     * Delete the revisions of the note which has been deleted
+     */
+    private static final String NOTE_DELETE_REVISIONS_ON_DELETE_TRIGGER =
+        "CREATE TRIGGER delete_revisions_on_delete " +
+        " AFTER DELETE ON " + TABLE.NOTE +
+        " BEGIN" +
+        "  DELETE FROM " + TABLE.REVISION +
+        "   WHERE " + RevisionColumns.NOTE_ID + "=old." + NoteColumns.ID + ";" +
+        " END";
+
     /**
      * Delete notes belong to folder which has been deleted
      */
@@ -213,6 +430,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     public void createNoteTable(SQLiteDatabase db) {
         db.execSQL(CREATE_NOTE_TABLE_SQL);
         reCreateNoteTableTriggers(db);
+        createNoteTableIndexes(db);
         createSystemFolder(db);
         Log.d(TAG, "note table has been created");
     }
@@ -225,6 +443,8 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("DROP TRIGGER IF EXISTS increase_folder_count_on_insert");
         db.execSQL("DROP TRIGGER IF EXISTS folder_delete_notes_on_delete");
         db.execSQL("DROP TRIGGER IF EXISTS folder_move_notes_on_trash");
+        db.execSQL("DROP TRIGGER IF EXISTS update_display_title_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS update_display_title_on_update");
 
         db.execSQL(NOTE_INCREASE_FOLDER_COUNT_ON_UPDATE_TRIGGER);
         db.execSQL(NOTE_DECREASE_FOLDER_COUNT_ON_UPDATE_TRIGGER);
@@ -233,6 +453,99 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(NOTE_INCREASE_FOLDER_COUNT_ON_INSERT_TRIGGER);
         db.execSQL(FOLDER_DELETE_NOTES_ON_DELETE_TRIGGER);
         db.execSQL(FOLDER_MOVE_NOTES_ON_TRASH_TRIGGER);
+        db.execSQL(NOTE_UPDATE_DISPLAY_TITLE_ON_INSERT_TRIGGER);
+        db.execSQL(NOTE_UPDATE_DISPLAY_TITLE_ON_UPDATE_TRIGGER);
+    }
+
+    /**
+     * Sql expression of the display title of the note row referred by the qualifier. For a
+     * note it is the first line of the snippet with the checklist tags and surrounding blank
+     * removed, for other types it is the snippet itself.
+     */
+    private static String displayTitleOf(String row) {
+        String snippet = row + "." + NoteColumns.SNIPPET;
+        String blank = "' \t\r\n'";
+        // only the head of the snippet is scanned, a snippet stored before
+        // version 9 can be the whole note
+        String head = "LTRIM(REPLACE(REPLACE(SUBSTR(" + snippet + ",1,"
+                + DISPLAY_TITLE_SCAN_LENGTH + "),'" + CHECKLIST_TAG_CHECKED + "',''),'"
+                + CHECKLIST_TAG_UNCHECKED + "','')," + blank + ")";
+        // the head from its first line break, trimming every other character of the head
+        // finds it without instr() which is missing from sqlite before 3.7.15
+        String rest = "LTRIM(" + head + ",REPLACE(" + head + ",x'0A',''))";
+        return "CASE " + row + "." + NoteColumns.TYPE + " WHEN " + Notes.TYPE_NOTE
+                + " THEN SUBSTR(RTRIM(SUBSTR(" + head + ",1,LENGTH(" + head + ")-LENGTH("
+                + rest + "))," + blank + "),1," + DISPLAY_TITLE_MAX_LENGTH + ")"
+                + " ELSE " + snippet + " END";
+    }
+
+    /**
+     * Sql expression of the text of the check list items of the note, one item a line in
+     * the order of their positions and without the check tags, so checking an item keeps it
+     */
+    private static String checkListTextOf(String noteId) {
+        return "IFNULL((SELECT group_concat(" + DataColumns.CONTENT + ",'\n') FROM (SELECT "
+                + DataColumns.CONTENT + " FROM " + TABLE.DATA
+                + " WHERE " + DataColumns.NOTE_ID + "=" + noteId
+                + " AND " + DataColumns.MIME_TYPE + "='" + DataConstants.CHECK_LIST_ITEM + "'"
+                + " ORDER BY " + CheckListItem.POSITION + "," + DataColumns.ID + ")),'')";
+    }
+
+    /**
+     * Sql condition of a text data row referred by the qualifier whose check list is stored
+     * as items
+     */
+    private static String isCheckListHead(String row) {
+        return "(" + row + "." + TextNote.MODE + "=" + TextNote.MODE_CHECK_LIST
+                + " AND " + row + "." + DataColumns.CONTENT + "='')";
+    }
+
+    /**
+     * Sql condition of a note whose check list is stored as items
+     */
+    private static String hasCheckListItems(String noteId) {
+        return "EXISTS(SELECT 1 FROM " + TABLE.DATA + " AS head"
+                + " WHERE head." + DataColumns.NOTE_ID + "=" + noteId
+                + " AND head." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'"
+                + " AND " + isCheckListHead("head") + ")";
+    }
+
+    /**
+     * Sql expression of the text of the text data row referred by the qualifier, which is
+     * the text of the items if it is the head of a check list
+     */
+    private static String noteTextOf(String row) {
+        return "CASE WHEN " + isCheckListHead(row) + " THEN "
+                + checkListTextOf(row + "." + DataColumns.NOTE_ID)
+                + " ELSE " + row + "." + DataColumns.CONTENT + " END";
+    }
+
+    /**
+     * Sql expression of the snippet of the note text given as sql expression
+     */
+    private static String snippetOf(String text) {
+        return "SUBSTR(" + text + ",1," + SNIPPET_MAX_LENGTH + ")";
+    }
+
+    /**
+     * Trigger statements setting the snippet and the index of the note to the text of its
+     * check list items
+     */
+    private static String updateCheckListText(String noteId) {
+        return "  UPDATE " + TABLE.NOTE +
+               "   SET " + NoteColumns.SNIPPET + "=" + snippetOf(checkListTextOf(noteId)) +
+               "  WHERE " + NoteColumns.ID + "=" + noteId + ";" +
+               "  DELETE FROM " + TABLE.NOTE_FTS +
+               "   WHERE docid=" + noteId + ";" +
+               "  INSERT INTO " + TABLE.NOTE_FTS + "(docid," + DataColumns.CONTENT + ")" +
+               "   VALUES(" + noteId + "," + checkListTextOf(noteId) + ");";
+    }
+
+    private void createNoteTableIndexes(SQLiteDatabase db) {
+        db.execSQL(CREATE_NOTE_PARENT_ID_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_GTASK_ID_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_WIDGET_ID_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_ALERTED_DATE_INDEX_SQL);
     }
 
     private void createSystemFolder(SQLiteDatabase db) {
@@ -272,6 +585,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
 
     public void createDataTable(SQLiteDatabase db) {
         db.execSQL(CREATE_DATA_TABLE_SQL);
+        createSearchIndex(db);
         reCreateDataTableTriggers(db);
         db.execSQL(CREATE_DATA_NOTE_ID_INDEX_SQL);
         Log.d(TAG, "data table has been created");
@@ -281,10 +595,40 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("DROP TRIGGER IF EXISTS update_note_content_on_insert");
         db.execSQL("DROP TRIGGER IF EXISTS update_note_content_on_update");
         db.execSQL("DROP TRIGGER IF EXISTS update_note_content_on_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS update_search_index_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS update_search_index_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS update_search_index_on_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS update_check_list_on_item_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS update_check_list_on_item_update");
+        db.execSQL("DROP TRIGGER IF EXISTS update_check_list_on_item_delete");
 
         db.execSQL(DATA_UPDATE_NOTE_CONTENT_ON_INSERT_TRIGGER);
         db.execSQL(DATA_UPDATE_NOTE_CONTENT_ON_UPDATE_TRIGGER);
         db.execSQL(DATA_UPDATE_NOTE_CONTENT_ON_DELETE_TRIGGER);
+        db.execSQL(DATA_UPDATE_SEARCH_INDEX_ON_INSERT_TRIGGER);
+        db.execSQL(DATA_UPDATE_SEARCH_INDEX_ON_UPDATE_TRIGGER);
+        db.execSQL(DATA_UPDATE_SEARCH_INDEX_ON_DELETE_TRIGGER);
+        db.execSQL(DATA_UPDATE_CHECK_LIST_ON_ITEM_INSERT_TRIGGER);
+        db.execSQL(DATA_UPDATE_CHECK_LIST_ON_ITEM_UPDATE_TRIGGER);
+        db.execSQL(DATA_UPDATE_CHECK_LIST_ON_ITEM_DELETE_TRIGGER);
+    }
+
+    /**
+     * Create the revision table with the trigger deleting the revisions of the deleted notes,
+     * after the note table
+     */
+    private void createRevisionTable(SQLiteDatabase db) {
+        db.execSQL(CREATE_REVISION_TABLE_SQL);
+        db.execSQL(CREATE_REVISION_NOTE_ID_INDEX_SQL);
+        db.execSQL("DROP TRIGGER IF EXISTS delete_revisions_on_delete");
+        db.execSQL(NOTE_DELETE_REVISIONS_ON_DELETE_TRIGGER);
+        Log.d(TAG, "revision table has been created");
+    }
+
+    private void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE.NOTE_FTS);
+        db.execSQL(CREATE_NOTE_FTS_TABLE_SQL);
+        Log.d(TAG, "search index has been created");
     }
 
     static synchronized NotesDatabaseHelper getInstance(Context context) {
@@ -298,6 +642,39 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase db) {
         createNoteTable(db);
         createDataTable(db);
+        createRevisionTable(db);
+    }
+
+    /**
+     * Use write-ahead logging, so the list, search and widget queries read from their own
+     * connections while sync or a cascading trigger is writing. The size of the reader
+     * connection pool is decided by the framework when logging is enabled.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (!db.enableWriteAheadLogging()) {
+            Log.w(TAG, "write-ahead logging is not supported by database " + db.getPath());
+            return;
+        }
+        // in WAL mode NORMAL only syncs on checkpoint and stays durable against app crashes
+        db.execSQL("PRAGMA synchronous=NORMAL");
+        runPragma(db, "PRAGMA wal_autocheckpoint=" + WAL_AUTO_CHECKPOINT_PAGES);
+        runPragma(db, "PRAGMA journal_size_limit=" + WAL_SIZE_LIMIT);
+    }
+
+    /**
+     * Pragmas which return the new value must be run as queries
+     */
+    private void runPragma(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        if (cursor != null) {
+            cursor.moveToFirst();
+            cursor.close();
+        }
     }
 
     @Override
@@ -322,6 +699,31 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
             oldVersion++;
         }
 
+        if (oldVersion == 4) {
+            upgradeToV5(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 5) {
+            upgradeToV6(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 6) {
+            upgradeToV7(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 7) {
+            upgradeToV8(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 8) {
+            upgradeToV9(db);
+            oldVersion++;
+        }
+
         if (reCreateTriggers) {
             reCreateNoteTableTriggers(db);
             reCreateDataTableTriggers(db);
@@ -359,4 +761,75 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.VERSION
                 + " INTEGER NOT NULL DEFAULT 0");
     }
+
+    private void upgradeToV5(SQLiteDatabase db) {
+        // build the full-text index over existing note content
+        createSearchIndex(db);
+        db.execSQL(NOTE_FTS_BACKFILL_SQL);
+        reCreateDataTableTriggers(db);
+        // index the columns the list, widget, alarm and sync queries filter on
+        createNoteTableIndexes(db);
+    }
+
+    private void upgradeToV6(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.DISPLAY_TITLE
+                + " TEXT NOT NULL DEFAULT ''");
+        db.execSQL(NOTE_DISPLAY_TITLE_BACKFILL_SQL);
+        reCreateNoteTableTriggers(db);
+    }
+
+    private void upgradeToV7(SQLiteDatabase db) {
+        reCreateDataTableTriggers(db);
+        // move the tagged lines of the check lists into item rows, the items are not shown
+        // until the content of their head is cleared
+        ArrayList<long[]> heads = new ArrayList<long[]>();
+        ArrayList<String> contents = new ArrayList<String>();
+        Cursor cursor = db.query(TABLE.DATA, new String[] {
+                DataColumns.ID, DataColumns.NOTE_ID, DataColumns.CONTENT
+            }, DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "' AND " + TextNote.MODE + "="
+                + TextNote.MODE_CHECK_LIST + " AND " + DataColumns.CONTENT + "<>''",
+                null, null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    heads.add(new long[] {
+                        cursor.getLong(0), cursor.getLong(1)
+                    });
+                    contents.add(cursor.getString(2));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < heads.size(); i++) {
+            long noteId = heads.get(i)[1];
+            ArrayList<CheckListUtils.Item> items = CheckListUtils.parse(contents.get(i));
+            for (int j = 0; j < items.size(); j++) {
+                CheckListUtils.Item item = items.get(j);
+                values.clear();
+                values.put(DataColumns.MIME_TYPE, DataConstants.CHECK_LIST_ITEM);
+                values.put(DataColumns.NOTE_ID, noteId);
+                values.put(DataColumns.CONTENT, item.getText());
+                values.put(CheckListItem.CHECKED, item.isChecked() ? 1 : 0);
+                values.put(CheckListItem.POSITION, CheckListUtils.positionOf(j));
+                db.insert(TABLE.DATA, null, values);
+            }
+            values.clear();
+            values.put(DataColumns.CONTENT, "");
+            db.update(TABLE.DATA, values, DataColumns.ID + "=" + heads.get(i)[0], null);
+        }
+        Log.d(TAG, heads.size() + " check lists moved into items");
+    }
+
+    private void upgradeToV8(SQLiteDatabase db) {
+        // the notes have no revision until they are saved by the editor
+        createRevisionTable(db);
+    }
+
+    private void upgradeToV9(SQLiteDatabase db) {
+        // the stored snippets are cut to the length at their next change
+        reCreateDataTableTriggers(db);
+    }
 }
@@ -19,27 +19,46 @@ package net.micode.notes.data;
 
 import android.app.SearchManager;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.net.Uri;
+import android.os.Bundle;
 import android.text.TextUtils;
 import android.util.Log;
 
 import net.micode.notes.R;
+import net.micode.notes.data.Notes.CallNote;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.data.NotesDatabaseHelper.TABLE;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
 
 public class NotesProvider extends ContentProvider {
     private static final UriMatcher mMatcher;
 
     private NotesDatabaseHelper mHelper;
 
+    private NotesChangeCoalescer mChangeCoalescer;
+
+    private NotesStatementCache mStatementCache;
+
+    /**
+     * Uris changed by the batch running on current thread, they are notified once the
+     * batch's transaction has been committed
+     */
+    private final ThreadLocal<LinkedHashSet<Uri>> mBatchChangedUris = new ThreadLocal<LinkedHashSet<Uri>>();
+
     private static final String TAG = "NotesProvider";
 
     private static final int URI_NOTE            = 1;
@@ -50,12 +69,18 @@ public class NotesProvider extends ContentProvider {
     private static final int URI_SEARCH          = 5;
     private static final int URI_SEARCH_SUGGEST  = 6;
 
+    private static final int URI_NOTE_LIST       = 7;
+
+    private static final int URI_REVISION        = 8;
+
     static {
         mMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         mMatcher.addURI(Notes.AUTHORITY, "note", URI_NOTE);
         mMatcher.addURI(Notes.AUTHORITY, "note/#", URI_NOTE_ITEM);
+        mMatcher.addURI(Notes.AUTHORITY, "note_list", URI_NOTE_LIST);
         mMatcher.addURI(Notes.AUTHORITY, "data", URI_DATA);
         mMatcher.addURI(Notes.AUTHORITY, "data/#", URI_DATA_ITEM);
+        mMatcher.addURI(Notes.AUTHORITY, "revision", URI_REVISION);
         mMatcher.addURI(Notes.AUTHORITY, "search", URI_SEARCH);
         mMatcher.addURI(Notes.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY, URI_SEARCH_SUGGEST);
         mMatcher.addURI(Notes.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY + "/*", URI_SEARCH_SUGGEST);
@@ -73,15 +98,72 @@ public class NotesProvider extends ContentProvider {
         + "'" + Intent.ACTION_VIEW + "' AS " + SearchManager.SUGGEST_COLUMN_INTENT_ACTION + ","
         + "'" + Notes.TextNote.CONTENT_TYPE + "' AS " + SearchManager.SUGGEST_COLUMN_INTENT_DATA;
 
-    private static String NOTES_SNIPPET_SEARCH_QUERY = "SELECT " + NOTES_SEARCH_PROJECTION
+    /**
+     * Search the full-text index and rank the hits by how many times the terms occur, the
+     * occurrence count is derived from the space separated quadruples returned by offsets()
+     */
+    private static final String NOTES_FTS_SEARCH_QUERY = "SELECT " + NOTES_SEARCH_PROJECTION
+        + " FROM " + TABLE.NOTE
+        + " INNER JOIN (SELECT docid, offsets(" + TABLE.NOTE_FTS + ") AS match_offsets"
+        + " FROM " + TABLE.NOTE_FTS
+        + " WHERE " + TABLE.NOTE_FTS + " MATCH ?) AS search_match"
+        + " ON " + NoteColumns.ID + "=search_match.docid"
+        + " WHERE " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
+        + " AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE
+        + " ORDER BY LENGTH(match_offsets) - LENGTH(REPLACE(match_offsets, ' ', '')) DESC, "
+        + NoteColumns.MODIFIED_DATE + " DESC"
+        + " LIMIT ?";
+
+    /**
+     * The simple tokenizer of fts3 treats a run of non-ASCII characters as one token, so a
+     * CJK query can not be matched in the middle of the text by MATCH. Such queries still
+     * use the index table, which holds the full content instead of the snippet.
+     */
+    private static final String NOTES_CONTENT_SEARCH_QUERY = "SELECT " + NOTES_SEARCH_PROJECTION
         + " FROM " + TABLE.NOTE
-        + " WHERE " + NoteColumns.SNIPPET + " LIKE ?"
+        + " INNER JOIN " + TABLE.NOTE_FTS
+        + " ON " + NoteColumns.ID + "=" + TABLE.NOTE_FTS + ".docid"
+        + " WHERE " + TABLE.NOTE_FTS + "." + DataColumns.CONTENT + " LIKE ?"
         + " AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
-        + " AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE;
+        + " AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE
+        + " ORDER BY " + NoteColumns.MODIFIED_DATE + " DESC"
+        + " LIMIT ?";
+
+    private static final int SEARCH_RESULT_LIMIT = 50;
+
+    private static final String ID_SELECTION = NoteColumns.ID + "=?";
+
+    private static final String[] DATA_NOTE_ID_PROJECTION = new String[] {
+        DataColumns.NOTE_ID
+    };
+
+    private static final String NOTE_PAGE_SORT_ORDER = NoteColumns.TYPE + " DESC,"
+        + NoteColumns.MODIFIED_DATE + " DESC," + NoteColumns.ID + " DESC";
+
+    /**
+     * Rows after the key (type, modified date, id) in {@link #NOTE_PAGE_SORT_ORDER}
+     */
+    private static final String NOTE_PAGE_KEYSET_SELECTION = NoteColumns.TYPE + "<? OR ("
+        + NoteColumns.TYPE + "=? AND (" + NoteColumns.MODIFIED_DATE + "<? OR ("
+        + NoteColumns.MODIFIED_DATE + "=? AND " + NoteColumns.ID + "<?)))";
+
+    /**
+     * The phone number of the call note in each list row, looked up through the note id index
+     * of data and only for the rows returned
+     */
+    private static final String NOTE_LIST_CALL_NUMBER_COLUMN = "(SELECT "
+        + CallNote.PHONE_NUMBER + " FROM " + TABLE.DATA
+        + " WHERE " + DataColumns.NOTE_ID + "=" + TABLE.NOTE + "." + NoteColumns.ID
+        + " AND " + DataColumns.MIME_TYPE + "='" + CallNote.CONTENT_ITEM_TYPE + "'"
+        + " LIMIT 1) AS " + Notes.COLUMN_CALL_NUMBER;
+
+    private static final String INCREASE_NOTE_VERSION_SQL = "UPDATE " + TABLE.NOTE
+        + " SET " + NoteColumns.VERSION + "=" + NoteColumns.VERSION + "+1";
 
     @Override
     public boolean onCreate() {
         mHelper = NotesDatabaseHelper.getInstance(getContext());
+        mChangeCoalescer = new NotesChangeCoalescer(getContext().getContentResolver());
         return true;
     }
 
@@ -92,14 +174,21 @@ public class NotesProvider extends ContentProvider {
         SQLiteDatabase db = mHelper.getReadableDatabase();
         String id = null;
         switch (mMatcher.match(uri)) {
+            case URI_NOTE_LIST:
+                projection = expandNoteListProjection(projection);
+                // fall through, the list is queried as notes
             case URI_NOTE:
-                c = db.query(TABLE.NOTE, projection, selection, selectionArgs, null, null,
-                        sortOrder);
+                if (uri.getQueryParameter(Notes.PARAM_LIMIT) != null) {
+                    c = queryNotePage(db, uri, projection, selection, selectionArgs);
+                } else {
+                    c = db.query(TABLE.NOTE, projection, selection, selectionArgs, null, null,
+                            sortOrder);
+                }
                 break;
             case URI_NOTE_ITEM:
                 id = uri.getPathSegments().get(1);
-                c = db.query(TABLE.NOTE, projection, NoteColumns.ID + "=" + id
-                        + parseSelection(selection), selectionArgs, null, null, sortOrder);
+                c = db.query(TABLE.NOTE, projection, ID_SELECTION + parseSelection(selection),
+                        appendSelectionArgs(id, selectionArgs), null, null, sortOrder);
                 break;
             case URI_DATA:
                 c = db.query(TABLE.DATA, projection, selection, selectionArgs, null, null,
@@ -107,8 +196,12 @@ public class NotesProvider extends ContentProvider {
                 break;
             case URI_DATA_ITEM:
                 id = uri.getPathSegments().get(1);
-                c = db.query(TABLE.DATA, projection, DataColumns.ID + "=" + id
-                        + parseSelection(selection), selectionArgs, null, null, sortOrder);
+                c = db.query(TABLE.DATA, projection, ID_SELECTION + parseSelection(selection),
+                        appendSelectionArgs(id, selectionArgs), null, null, sortOrder);
+                break;
+            case URI_REVISION:
+                c = db.query(TABLE.REVISION, projection, selection, selectionArgs, null, null,
+                        sortOrder);
                 break;
             case URI_SEARCH:
             case URI_SEARCH_SUGGEST:
@@ -130,23 +223,50 @@ public class NotesProvider extends ContentProvider {
                     return null;
                 }
 
+                String limit = String.valueOf(parseSearchLimit(
+                        uri.getQueryParameter(SearchManager.SUGGEST_PARAMETER_LIMIT)));
                 try {
-                    searchString = String.format("%%%s%%", searchString);
-                    c = db.rawQuery(NOTES_SNIPPET_SEARCH_QUERY,
-                            new String[] { searchString });
+                    if (isAsciiSearch(searchString)) {
+                        String matchString = buildMatchString(searchString);
+                        if (TextUtils.isEmpty(matchString)) {
+                            return null;
+                        }
+                        c = db.rawQuery(NOTES_FTS_SEARCH_QUERY,
+                                new String[] { matchString, limit });
+                    } else {
+                        searchString = String.format("%%%s%%", searchString);
+                        c = db.rawQuery(NOTES_CONTENT_SEARCH_QUERY,
+                                new String[] { searchString, limit });
+                    }
                 } catch (IllegalStateException ex) {
                     Log.e(TAG, "got exception: " + ex.toString());
+                } catch (SQLiteException ex) {
+                    Log.e(TAG, "got exception: " + ex.toString());
                 }
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
         if (c != null) {
-            c.setNotificationUri(getContext().getContentResolver(), uri);
+            // the list changes with every note, while changes are notified by note uris
+            c.setNotificationUri(getContext().getContentResolver(),
+                    mMatcher.match(uri) == URI_NOTE_LIST ? Notes.CONTENT_NOTE_URI : uri);
         }
         return c;
     }
 
+    private String[] expandNoteListProjection(String[] projection) {
+        if (projection == null) {
+            return null;
+        }
+        String[] columns = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = Notes.COLUMN_CALL_NUMBER.equals(projection[i])
+                    ? NOTE_LIST_CALL_NUMBER_COLUMN : projection[i];
+        }
+        return columns;
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues values) {
         SQLiteDatabase db = mHelper.getWritableDatabase();
@@ -163,19 +283,21 @@ public class NotesProvider extends ContentProvider {
                 }
                 insertedId = dataId = db.insert(TABLE.DATA, null, values);
                 break;
+            case URI_REVISION:
+                // written with the data of the note, which is notified instead
+                insertedId = db.insert(TABLE.REVISION, null, values);
+                break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
         // Notify the note uri
         if (noteId > 0) {
-            getContext().getContentResolver().notifyChange(
-                    ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), null);
+            notifyChange(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId));
         }
 
         // Notify the data uri
         if (dataId > 0) {
-            getContext().getContentResolver().notifyChange(
-                    ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId), null);
+            notifyChange(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId));
         }
 
         return ContentUris.withAppendedId(uri, insertedId);
@@ -186,7 +308,7 @@ public class NotesProvider extends ContentProvider {
         int count = 0;
         String id = null;
         SQLiteDatabase db = mHelper.getWritableDatabase();
-        boolean deleteData = false;
+        LinkedHashSet<Long> dataNoteIds = null;
         switch (mMatcher.match(uri)) {
             case URI_NOTE:
                 selection = "(" + selection + ") AND " + NoteColumns.ID + ">0 ";
@@ -202,27 +324,28 @@ public class NotesProvider extends ContentProvider {
                 if (noteId <= 0) {
                     break;
                 }
-                count = db.delete(TABLE.NOTE,
-                        NoteColumns.ID + "=" + id + parseSelection(selection), selectionArgs);
+                count = deleteById(TABLE.NOTE, noteId, selection, selectionArgs);
                 break;
             case URI_DATA:
+                dataNoteIds = queryDataNoteIds(db, -1, selection, selectionArgs);
                 count = db.delete(TABLE.DATA, selection, selectionArgs);
-                deleteData = true;
                 break;
             case URI_DATA_ITEM:
                 id = uri.getPathSegments().get(1);
-                count = db.delete(TABLE.DATA,
-                        DataColumns.ID + "=" + id + parseSelection(selection), selectionArgs);
-                deleteData = true;
+                dataNoteIds = queryDataNoteIds(db, Long.valueOf(id), selection, selectionArgs);
+                count = deleteById(TABLE.DATA, Long.valueOf(id), selection, selectionArgs);
                 break;
+            case URI_REVISION:
+                // the revisions are not observed
+                return db.delete(TABLE.REVISION, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
         if (count > 0) {
-            if (deleteData) {
-                getContext().getContentResolver().notifyChange(Notes.CONTENT_NOTE_URI, null);
+            if (dataNoteIds != null) {
+                notifyNoteChanges(dataNoteIds);
             }
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return count;
     }
@@ -232,7 +355,7 @@ public class NotesProvider extends ContentProvider {
         int count = 0;
         String id = null;
         SQLiteDatabase db = mHelper.getWritableDatabase();
-        boolean updateData = false;
+        LinkedHashSet<Long> dataNoteIds = null;
         switch (mMatcher.match(uri)) {
             case URI_NOTE:
                 increaseNoteVersion(-1, selection, selectionArgs);
@@ -241,59 +364,331 @@ public class NotesProvider extends ContentProvider {
             case URI_NOTE_ITEM:
                 id = uri.getPathSegments().get(1);
                 increaseNoteVersion(Long.valueOf(id), selection, selectionArgs);
-                count = db.update(TABLE.NOTE, values, NoteColumns.ID + "=" + id
-                        + parseSelection(selection), selectionArgs);
+                count = updateById(TABLE.NOTE, Long.valueOf(id), values, selection,
+                        selectionArgs);
                 break;
             case URI_DATA:
+                dataNoteIds = queryDataNoteIds(db, -1, selection, selectionArgs);
                 count = db.update(TABLE.DATA, values, selection, selectionArgs);
-                updateData = true;
                 break;
             case URI_DATA_ITEM:
                 id = uri.getPathSegments().get(1);
-                count = db.update(TABLE.DATA, values, DataColumns.ID + "=" + id
-                        + parseSelection(selection), selectionArgs);
-                updateData = true;
+                dataNoteIds = queryDataNoteIds(db, Long.valueOf(id), selection, selectionArgs);
+                count = updateById(TABLE.DATA, Long.valueOf(id), values, selection,
+                        selectionArgs);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
         if (count > 0) {
-            if (updateData) {
-                getContext().getContentResolver().notifyChange(Notes.CONTENT_NOTE_URI, null);
+            if (dataNoteIds != null) {
+                if (values.containsKey(DataColumns.NOTE_ID)) {
+                    // the rows are moved to another note
+                    dataNoteIds.add(values.getAsLong(DataColumns.NOTE_ID));
+                }
+                notifyNoteChanges(dataNoteIds);
+            }
+            notifyChange(uri);
+        }
+        return count;
+    }
+
+    /**
+     * Apply all the operations in one transaction, so that a batch costs one commit instead
+     * of one per operation, and observers are notified once per changed uri after commit
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (mBatchChangedUris.get() != null) {
+            // nested in another batch, join its transaction
+            return super.applyBatch(operations);
+        }
+
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        LinkedHashSet<Uri> changedUris = new LinkedHashSet<Uri>();
+        boolean successful = false;
+        ContentProviderResult[] results = null;
+        mBatchChangedUris.set(changedUris);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            mBatchChangedUris.set(null);
+        }
+
+        if (successful) {
+            notifyChanges(changedUris);
+        }
+        return results;
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        if (mBatchChangedUris.get() != null) {
+            return super.bulkInsert(uri, values);
+        }
+
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        LinkedHashSet<Uri> changedUris = new LinkedHashSet<Uri>();
+        boolean successful = false;
+        int count = 0;
+        mBatchChangedUris.set(changedUris);
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (ContentUris.parseId(insert(uri, value)) > 0) {
+                    count++;
+                }
             }
-            getContext().getContentResolver().notifyChange(uri, null);
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            mBatchChangedUris.set(null);
+        }
+
+        if (successful) {
+            notifyChanges(changedUris);
         }
         return count;
     }
 
+    /**
+     * Handle {@link Notes#METHOD_SUSPEND_NOTIFICATIONS} and
+     * {@link Notes#METHOD_RESUME_NOTIFICATIONS}, calls must be paired
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (Notes.METHOD_SUSPEND_NOTIFICATIONS.equals(method)) {
+            mChangeCoalescer.suspend();
+        } else if (Notes.METHOD_RESUME_NOTIFICATIONS.equals(method)) {
+            mChangeCoalescer.resume();
+        } else {
+            Log.w(TAG, "Unknown method " + method);
+        }
+        return null;
+    }
+
+    private void notifyChange(Uri uri) {
+        LinkedHashSet<Uri> changedUris = mBatchChangedUris.get();
+        if (changedUris != null) {
+            changedUris.add(uri);
+        } else {
+            mChangeCoalescer.add(uri);
+        }
+    }
+
+    private void notifyChanges(LinkedHashSet<Uri> uris) {
+        mChangeCoalescer.addAll(uris);
+    }
+
+    /**
+     * Notify the notes owning the written data rows, the snippet of a note is changed by the
+     * triggers on its data
+     */
+    private void notifyNoteChanges(LinkedHashSet<Long> noteIds) {
+        for (Long noteId : noteIds) {
+            notifyChange(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId));
+        }
+    }
+
+    /**
+     * Query the notes owning the data rows about to be written, so the write is notified to
+     * the observers of these notes instead of all the notes
+     * @param id the id of the data row, or -1 for the rows of the selection
+     */
+    private LinkedHashSet<Long> queryDataNoteIds(SQLiteDatabase db, long id, String selection,
+            String[] selectionArgs) {
+        if (id > 0) {
+            selection = ID_SELECTION + parseSelection(selection);
+            selectionArgs = appendSelectionArgs(String.valueOf(id), selectionArgs);
+        }
+        LinkedHashSet<Long> noteIds = new LinkedHashSet<Long>();
+        Cursor cursor = db.query(true, TABLE.DATA, DATA_NOTE_ID_PROJECTION, selection,
+                selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                noteIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return noteIds;
+    }
+
+    private int parseSearchLimit(String limit) {
+        if (!TextUtils.isEmpty(limit)) {
+            try {
+                int value = Integer.parseInt(limit);
+                if (value > 0) {
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Wrong search limit:" + limit);
+            }
+        }
+        return SEARCH_RESULT_LIMIT;
+    }
+
+    private boolean isAsciiSearch(String searchString) {
+        for (int i = 0; i < searchString.length(); i++) {
+            if (searchString.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convert the user input into a fts3 query, every word becomes a prefix term so that
+     * search-as-you-type matches the word being typed. Characters which have special meaning
+     * in the query syntax are separators for the simple tokenizer, so they are dropped here.
+     */
+    private String buildMatchString(String searchString) {
+        StringBuilder match = new StringBuilder();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= searchString.length(); i++) {
+            char ch = i < searchString.length() ? searchString.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(ch)) {
+                term.append(ch);
+            } else if (term.length() > 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(term).append('*');
+                term.setLength(0);
+            }
+        }
+        return match.toString();
+    }
+
     private String parseSelection(String selection) {
         return (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')' : "");
     }
 
-    private void increaseNoteVersion(long id, String selection, String[] selectionArgs) {
+    /**
+     * Query one page of notes, the page starts after the row given by the after parameters
+     * so it is located through the index instead of skipping the previous rows with OFFSET
+     */
+    private Cursor queryNotePage(SQLiteDatabase db, Uri uri, String[] projection,
+            String selection, String[] selectionArgs) {
+        String limit = uri.getQueryParameter(Notes.PARAM_LIMIT);
+        String afterType = uri.getQueryParameter(Notes.PARAM_AFTER_TYPE);
+        String afterModifiedDate = uri.getQueryParameter(Notes.PARAM_AFTER_MODIFIED_DATE);
+        String afterId = uri.getQueryParameter(Notes.PARAM_AFTER_ID);
+
+        if (afterType != null && afterModifiedDate != null && afterId != null) {
+            selection = TextUtils.isEmpty(selection) ? NOTE_PAGE_KEYSET_SELECTION
+                    : "(" + selection + ") AND (" + NOTE_PAGE_KEYSET_SELECTION + ")";
+            int length = selectionArgs == null ? 0 : selectionArgs.length;
+            String[] args = new String[length + 5];
+            if (length > 0) {
+                System.arraycopy(selectionArgs, 0, args, 0, length);
+            }
+            args[length] = afterType;
+            args[length + 1] = afterType;
+            args[length + 2] = afterModifiedDate;
+            args[length + 3] = afterModifiedDate;
+            args[length + 4] = afterId;
+            selectionArgs = args;
+        }
+        return db.query(TABLE.NOTE, projection, selection, selectionArgs, null, null,
+                NOTE_PAGE_SORT_ORDER, limit);
+    }
+
+    private String[] appendSelectionArgs(String id, String[] selectionArgs) {
+        int length = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[length + 1];
+        args[0] = id;
+        if (length > 0) {
+            System.arraycopy(selectionArgs, 0, args, 1, length);
+        }
+        return args;
+    }
+
+    /**
+     * Concatenate the arguments in the order of the sql built by the callers: column values,
+     * row id (if not null) and selection arguments
+     */
+    private Object[] buildBindArgs(Object[] head, Long id, String[] selectionArgs) {
+        int headLength = head == null ? 0 : head.length;
+        int length = selectionArgs == null ? 0 : selectionArgs.length;
+        Object[] args = new Object[headLength + (id != null ? 1 : 0) + length];
+        if (headLength > 0) {
+            System.arraycopy(head, 0, args, 0, headLength);
+        }
+        if (id != null) {
+            args[headLength] = id;
+        }
+        if (length > 0) {
+            System.arraycopy(selectionArgs, 0, args, args.length - length, length);
+        }
+        return args;
+    }
+
+    private synchronized NotesStatementCache getStatementCache() {
+        if (mStatementCache == null) {
+            mStatementCache = new NotesStatementCache(mHelper.getWritableDatabase());
+        }
+        return mStatementCache;
+    }
+
+    /**
+     * Update the row with given id through a cached statement, the sql only depends on the
+     * updated columns and the selection, so the same save compiles once
+     */
+    private int updateById(String table, long id, ContentValues values, String selection,
+            String[] selectionArgs) {
+        if (values == null || values.size() == 0) {
+            throw new IllegalArgumentException("Empty values");
+        }
         StringBuilder sql = new StringBuilder(120);
         sql.append("UPDATE ");
-        sql.append(TABLE.NOTE);
+        sql.append(table);
         sql.append(" SET ");
-        sql.append(NoteColumns.VERSION);
-        sql.append("=" + NoteColumns.VERSION + "+1 ");
+        Object[] columnValues = new Object[values.size()];
+        int i = 0;
+        for (String column : values.keySet()) {
+            sql.append(i > 0 ? "," : "");
+            sql.append(column);
+            sql.append("=?");
+            columnValues[i++] = values.get(column);
+        }
+        sql.append(" WHERE ");
+        sql.append(ID_SELECTION);
+        sql.append(parseSelection(selection));
+
+        return getStatementCache().executeUpdateDelete(sql.toString(),
+                buildBindArgs(columnValues, Long.valueOf(id), selectionArgs));
+    }
+
+    private int deleteById(String table, long id, String selection, String[] selectionArgs) {
+        String sql = "DELETE FROM " + table + " WHERE " + ID_SELECTION + parseSelection(selection);
+        return getStatementCache().executeUpdateDelete(sql,
+                buildBindArgs(null, Long.valueOf(id), selectionArgs));
+    }
+
+    private void increaseNoteVersion(long id, String selection, String[] selectionArgs) {
+        StringBuilder sql = new StringBuilder(120);
+        sql.append(INCREASE_NOTE_VERSION_SQL);
 
         if (id > 0 || !TextUtils.isEmpty(selection)) {
             sql.append(" WHERE ");
         }
         if (id > 0) {
-            sql.append(NoteColumns.ID + "=" + String.valueOf(id));
+            sql.append(ID_SELECTION);
         }
         if (!TextUtils.isEmpty(selection)) {
-            String selectString = id > 0 ? parseSelection(selection) : selection;
-            for (String args : selectionArgs) {
-                selectString = selectString.replaceFirst("\\?", args);
-            }
-            sql.append(selectString);
+            sql.append(id > 0 ? parseSelection(selection) : selection);
         }
 
-        mHelper.getWritableDatabase().execSQL(sql.toString());
+        getStatementCache().executeUpdateDelete(sql.toString(),
+                buildBindArgs(null, id > 0 ? Long.valueOf(id) : null, selectionArgs));
     }
 
     @Override
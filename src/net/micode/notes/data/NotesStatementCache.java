@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the compiled write statements of {@link NotesProvider} keyed by their sql. A
+ * statement is taken out of the cache while it is executed and put back afterwards, so two
+ * threads never bind arguments into the same statement and no lock is held while waiting
+ * for the database.
+ */
+class NotesStatementCache {
+    private static final int MAX_STATEMENTS = 16;
+
+    private final SQLiteDatabase mDb;
+
+    private final LinkedHashMap<String, SQLiteStatement> mStatements;
+
+    public NotesStatementCache(SQLiteDatabase db) {
+        mDb = db;
+        mStatements = new LinkedHashMap<String, SQLiteStatement>(MAX_STATEMENTS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                if (size() > MAX_STATEMENTS) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Execute an UPDATE or DELETE statement with the arguments bound in order
+     * @return the number of rows affected
+     */
+    public int executeUpdateDelete(String sql, Object[] bindArgs) {
+        SQLiteStatement statement = acquire(sql);
+        try {
+            if (bindArgs != null) {
+                for (int i = 0; i < bindArgs.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(statement, i + 1, bindArgs[i]);
+                }
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.clearBindings();
+            release(sql, statement);
+        }
+    }
+
+    private SQLiteStatement acquire(String sql) {
+        SQLiteStatement statement;
+        synchronized (mStatements) {
+            statement = mStatements.remove(sql);
+        }
+        if (statement == null) {
+            statement = mDb.compileStatement(sql);
+        }
+        return statement;
+    }
+
+    private void release(String sql, SQLiteStatement statement) {
+        SQLiteStatement previous;
+        synchronized (mStatements) {
+            previous = mStatements.put(sql, statement);
+        }
+        if (previous != null) {
+            // another thread has compiled the same sql meanwhile
+            previous.close();
+        }
+    }
+}
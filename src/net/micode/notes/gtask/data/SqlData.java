@@ -61,7 +61,7 @@ public class SqlData {
     // 集合了interface DataColumns中所有SF常量
     public static final String[] PROJECTION_DATA = new String[] {
             DataColumns.ID, DataColumns.MIME_TYPE, DataColumns.CONTENT, DataColumns.DATA1,
-            DataColumns.DATA3
+            DataColumns.DATA3, DataColumns.DATA2
     };
 
     /**
@@ -77,6 +77,8 @@ public class SqlData {
 
     public static final int DATA_CONTENT_DATA_3_COLUMN = 4;
 
+    public static final int DATA_CONTENT_DATA_2_COLUMN = 5;
+
     private ContentResolver mContentResolver;
     //判断是否直接用Content生成，是为true，否则为false
     private boolean mIsCreate;
@@ -91,6 +93,9 @@ public class SqlData {
 
     private String mDataContentData3;
 
+    // the position of a check list item
+    private long mDataContentData2;
+
     private ContentValues mDiffDataValues;
 
 	/*
@@ -108,6 +113,7 @@ public class SqlData {
         mDataContent = "";
         mDataContentData1 = 0;
         mDataContentData3 = "";
+        mDataContentData2 = 0;
         mDiffDataValues = new ContentValues();
     }
 
@@ -137,6 +143,7 @@ public class SqlData {
         mDataContent = c.getString(DATA_CONTENT_COLUMN);
         mDataContentData1 = c.getLong(DATA_CONTENT_DATA_1_COLUMN);
         mDataContentData3 = c.getString(DATA_CONTENT_DATA_3_COLUMN);
+        mDataContentData2 = c.getLong(DATA_CONTENT_DATA_2_COLUMN);
     }
 
 
@@ -177,6 +184,12 @@ public class SqlData {
             mDiffDataValues.put(DataColumns.DATA3, dataContentData3);
         }
         mDataContentData3 = dataContentData3;
+
+        long dataContentData2 = js.has(DataColumns.DATA2) ? js.getLong(DataColumns.DATA2) : 0;
+        if (mIsCreate || mDataContentData2 != dataContentData2) {
+            mDiffDataValues.put(DataColumns.DATA2, dataContentData2);
+        }
+        mDataContentData2 = dataContentData2;
     }
 
 
@@ -197,6 +210,7 @@ public class SqlData {
         js.put(DataColumns.CONTENT, mDataContent);
         js.put(DataColumns.DATA1, mDataContentData1);
         js.put(DataColumns.DATA3, mDataContentData3);
+        js.put(DataColumns.DATA2, mDataContentData2);
         return js;
     }
 
@@ -21,16 +21,23 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.CheckListItem;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.TextNote;
 import net.micode.notes.gtask.exception.ActionFailureException;
+import net.micode.notes.tool.CheckListUtils;
 import net.micode.notes.tool.GTaskStringUtils;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
 
 public class Task extends Node {
     private static final String TAG = Task.class.getSimpleName();
@@ -193,7 +200,13 @@ public class Task extends Node {
             for (int i = 0; i < dataArray.length(); i++) {
                 JSONObject data = dataArray.getJSONObject(i);
                 if (TextUtils.equals(data.getString(DataColumns.MIME_TYPE), DataConstants.NOTE)) {
-                    setName(data.getString(DataColumns.CONTENT));
+                    String content = data.getString(DataColumns.CONTENT);
+                    if (TextUtils.isEmpty(content) && data.optInt(TextNote.MODE)
+                            == TextNote.MODE_CHECK_LIST) {
+                        // the task holds the items as the tagged lines of the text
+                        content = getCheckListText(dataArray);
+                    }
+                    setName(content);
                     break;
                 }
             }
@@ -204,6 +217,33 @@ public class Task extends Node {
         }
     }
 
+    /**
+     * @return the text of the check list items of the data in the order of their positions
+     */
+    private static String getCheckListText(JSONArray dataArray) throws JSONException {
+        ArrayList<JSONObject> items = new ArrayList<JSONObject>();
+        for (int i = 0; i < dataArray.length(); i++) {
+            JSONObject data = dataArray.getJSONObject(i);
+            if (TextUtils.equals(data.getString(DataColumns.MIME_TYPE),
+                    DataConstants.CHECK_LIST_ITEM)) {
+                items.add(data);
+            }
+        }
+        Collections.sort(items, new Comparator<JSONObject>() {
+            public int compare(JSONObject lhs, JSONObject rhs) {
+                long lhsPosition = lhs.optLong(CheckListItem.POSITION);
+                long rhsPosition = rhs.optLong(CheckListItem.POSITION);
+                return lhsPosition < rhsPosition ? -1 : (lhsPosition == rhsPosition ? 0 : 1);
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        for (JSONObject item : items) {
+            CheckListUtils.appendItem(sb, item.getString(DataColumns.CONTENT),
+                    item.optInt(CheckListItem.CHECKED) != 0);
+        }
+        return sb.toString();
+    }
+
     public JSONObject getLocalJSONFromContent() {
         String name = getName();
         try {
@@ -35,6 +35,7 @@ import net.micode.notes.gtask.data.Task;
 import net.micode.notes.gtask.data.TaskList;
 import net.micode.notes.gtask.exception.ActionFailureException;
 import net.micode.notes.gtask.exception.NetworkFailureException;
+import net.micode.notes.model.NoteRepository;
 import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.GTaskStringUtils;
 
@@ -142,9 +143,18 @@ public class GTaskManager {
             asyncTask.publishProgess(mContext.getString(R.string.sync_progress_init_list));
             initGTaskList();
 
-            // do content sync work
+            // do content sync work, the list re-queries once when it's done instead of
+            // after every committed note
             asyncTask.publishProgess(mContext.getString(R.string.sync_progress_syncing));
-            syncContent();
+            NoteRepository repository = NoteRepository.getInstance(mContext);
+            repository.suspendCaching();
+            DataUtils.suspendNotifications(mContentResolver);
+            try {
+                syncContent();
+            } finally {
+                DataUtils.resumeNotifications(mContentResolver);
+                repository.resumeCaching();
+            }
         } catch (NetworkFailureException e) {
             Log.e(TAG, e.toString());
             return STATE_NETWORK_ERROR;
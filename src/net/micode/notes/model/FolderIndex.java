@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.model;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.NoteColumns;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process wide index of the user folders which are not in the trash. It is loaded once, then
+ * the rows notified by the provider are queried again, and the whole index is reloaded for
+ * coarser notifications. The notifications are only queued on the binder thread delivering
+ * them, the load and the queries of the queued rows run on a worker thread, so the index is
+ * read without any query or lock. The readers wait for the first load through
+ * {@link #whenLoaded}.
+ */
+public class FolderIndex {
+    private static final String TAG = "FolderIndex";
+
+    private static final String[] PROJECTION = new String[] {
+        NoteColumns.ID,
+        NoteColumns.TYPE,
+        NoteColumns.PARENT_ID,
+        NoteColumns.SNIPPET,
+        NoteColumns.MODIFIED_DATE
+    };
+
+    private static final int ID_COLUMN            = 0;
+    private static final int TYPE_COLUMN          = 1;
+    private static final int PARENT_ID_COLUMN     = 2;
+    private static final int SNIPPET_COLUMN       = 3;
+    private static final int MODIFIED_DATE_COLUMN = 4;
+
+    /**
+     * Rows queried by one patch query, each row takes one argument of the selection
+     */
+    private static final int MAX_ROWS_PER_PATCH = 50;
+
+    private static final String VISIBLE_FOLDER_SELECTION = NoteColumns.TYPE + "="
+            + Notes.TYPE_FOLDER + " AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER;
+
+    /**
+     * Most recently modified folders first, the order of the move to folder menu
+     */
+    private static final Comparator<Folder> MODIFIED_DATE_ORDER = new Comparator<Folder>() {
+        public int compare(Folder lhs, Folder rhs) {
+            if (lhs.mModifiedDate != rhs.mModifiedDate) {
+                return lhs.mModifiedDate > rhs.mModifiedDate ? -1 : 1;
+            }
+            return lhs.mId > rhs.mId ? -1 : (lhs.mId == rhs.mId ? 0 : 1);
+        }
+    };
+
+    private static FolderIndex sInstance;
+
+    /**
+     * Loads the index and applies the queued notifications in their order, the index is only
+     * replaced on it
+     */
+    private static final ExecutorService sPatchExecutor = Executors.newSingleThreadExecutor();
+
+    private final ContentResolver mResolver;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Callbacks waiting for the first load, guarded by itself
+     */
+    private final ArrayList<Runnable> mLoadCallbacks = new ArrayList<Runnable>();
+
+    private boolean mLoadScheduled;
+
+    /**
+     * The folders in {@link #MODIFIED_DATE_ORDER}, replaced as a whole and never modified,
+     * null until it is loaded
+     */
+    private volatile List<Folder> mFolders;
+
+    /**
+     * Ids of the notified rows not queried yet, guarded by itself
+     */
+    private final LinkedHashSet<Long> mPendingIds = new LinkedHashSet<Long>();
+
+    /**
+     * Whether a coarse notification is not applied yet, it makes the pending ids redundant
+     */
+    private boolean mReloadPending;
+
+    /**
+     * Whether {@link #mApplyRunnable} is submitted and has not taken the pending work yet
+     */
+    private boolean mApplyScheduled;
+
+    private final Runnable mApplyRunnable = new Runnable() {
+        public void run() {
+            applyPending();
+        }
+    };
+
+    private final Runnable mLoadRunnable = new Runnable() {
+        public void run() {
+            if (mFolders == null) {
+                reload();
+            }
+            ArrayList<Runnable> callbacks;
+            synchronized (mLoadCallbacks) {
+                callbacks = new ArrayList<Runnable>(mLoadCallbacks);
+                mLoadCallbacks.clear();
+                mLoadScheduled = false;
+            }
+            for (Runnable callback : callbacks) {
+                mHandler.post(callback);
+            }
+        }
+    };
+
+    public static synchronized FolderIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FolderIndex(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private FolderIndex(Context context) {
+        mResolver = context.getContentResolver();
+        mResolver.registerContentObserver(Notes.CONTENT_NOTE_URI, true,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        queue(0);
+                    }
+
+                    @Override
+                    public void onChange(boolean selfChange, Uri uri) {
+                        queue(NoteRepository.parseNoteId(uri));
+                    }
+                });
+    }
+
+    /**
+     * Start loading the index in background if it is not loaded yet, called before the
+     * folders are needed
+     */
+    public void preload() {
+        whenLoaded(null);
+    }
+
+    /**
+     * Run the callback once the index is loaded, right away if it is, else on the UI thread
+     * after the load
+     * @param callback the callback, or null to only start the load
+     */
+    public void whenLoaded(Runnable callback) {
+        if (mFolders != null) {
+            if (callback != null) {
+                callback.run();
+            }
+            return;
+        }
+        synchronized (mLoadCallbacks) {
+            if (callback != null) {
+                mLoadCallbacks.add(callback);
+            }
+            if (mLoadScheduled) {
+                return;
+            }
+            mLoadScheduled = true;
+        }
+        sPatchExecutor.execute(mLoadRunnable);
+    }
+
+    /**
+     * @return the folders a note of the folder can be moved to, with the root folder if the
+     *         note is in a sub folder
+     */
+    public List<Folder> getDestinationFolders(long currentFolderId) {
+        List<Folder> folders = getFolders();
+        ArrayList<Folder> destinations = new ArrayList<Folder>(folders.size() + 1);
+        if (currentFolderId != Notes.ID_ROOT_FOLDER) {
+            destinations.add(new Folder(Notes.ID_ROOT_FOLDER, null, 0));
+        }
+        for (Folder folder : folders) {
+            if (folder.mId != currentFolderId) {
+                destinations.add(folder);
+            }
+        }
+        return destinations;
+    }
+
+    /**
+     * Get the count of the user folders, the system folders and the folders in the trash
+     * are left out
+     */
+    public int getUserFolderCount() {
+        return getFolders().size();
+    }
+
+    /**
+     * @return true if a folder out of the trash is named the same
+     */
+    public boolean containsVisibleName(String name) {
+        for (Folder folder : getFolders()) {
+            if (TextUtils.equals(folder.mName, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the folders, none until the index is loaded
+     */
+    private List<Folder> getFolders() {
+        List<Folder> folders = mFolders;
+        if (folders == null) {
+            Log.w(TAG, "Folders read before they are loaded");
+            return Collections.emptyList();
+        }
+        return folders;
+    }
+
+    /**
+     * Queue the row for the next patch, or the whole index for a reload if the id is not
+     * positive
+     */
+    private void queue(long noteId) {
+        synchronized (mPendingIds) {
+            if (noteId > 0) {
+                if (!mReloadPending) {
+                    mPendingIds.add(noteId);
+                }
+            } else {
+                mReloadPending = true;
+                mPendingIds.clear();
+            }
+            if (mApplyScheduled) {
+                return;
+            }
+            mApplyScheduled = true;
+        }
+        sPatchExecutor.execute(mApplyRunnable);
+    }
+
+    private void applyPending() {
+        boolean reload;
+        ArrayList<Long> noteIds;
+        synchronized (mPendingIds) {
+            reload = mReloadPending;
+            noteIds = new ArrayList<Long>(mPendingIds);
+            mReloadPending = false;
+            mPendingIds.clear();
+            mApplyScheduled = false;
+        }
+        if (mFolders == null) {
+            // not loaded yet, the first load reads the changes anyway
+            return;
+        }
+        if (reload) {
+            reload();
+            return;
+        }
+        for (int start = 0; start < noteIds.size(); start += MAX_ROWS_PER_PATCH) {
+            patch(noteIds.subList(start, Math.min(noteIds.size(), start + MAX_ROWS_PER_PATCH)));
+        }
+    }
+
+    /**
+     * Query all the folders, runs on {@link #sPatchExecutor}
+     */
+    private void reload() {
+        ArrayList<Folder> folders = new ArrayList<Folder>();
+        Cursor cursor = mResolver.query(Notes.CONTENT_NOTE_URI, PROJECTION,
+                VISIBLE_FOLDER_SELECTION, null, null);
+        if (cursor == null) {
+            Log.e(TAG, "Query folders failed");
+            if (mFolders == null) {
+                mFolders = Collections.emptyList();
+            }
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                folders.add(new Folder(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        Collections.sort(folders, MODIFIED_DATE_ORDER);
+        mFolders = Collections.unmodifiableList(folders);
+    }
+
+    /**
+     * Query the changed rows again and replace, add or remove their folders, runs on
+     * {@link #sPatchExecutor}
+     */
+    private void patch(List<Long> noteIds) {
+        String[] selectionArgs = new String[noteIds.size()];
+        StringBuilder selection = new StringBuilder(NoteColumns.ID + " IN (");
+        for (int i = 0; i < selectionArgs.length; i++) {
+            selection.append(i > 0 ? ",?" : "?");
+            selectionArgs[i] = String.valueOf(noteIds.get(i));
+        }
+        selection.append(")");
+
+        Cursor cursor = mResolver.query(Notes.CONTENT_NOTE_URI, PROJECTION,
+                selection.toString(), selectionArgs, null);
+        if (cursor == null) {
+            Log.e(TAG, "Query folders failed with ids:" + noteIds);
+            return;
+        }
+        HashMap<Long, Folder> changed = new HashMap<Long, Folder>();
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.getInt(TYPE_COLUMN) == Notes.TYPE_FOLDER
+                        && cursor.getLong(PARENT_ID_COLUMN) != Notes.ID_TRASH_FOLER) {
+                    changed.put(cursor.getLong(ID_COLUMN), new Folder(cursor));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ArrayList<Folder> folders = new ArrayList<Folder>(mFolders.size() + changed.size());
+        boolean removed = false;
+        for (Folder folder : mFolders) {
+            if (noteIds.contains(folder.mId)) {
+                removed = true;
+            } else {
+                folders.add(folder);
+            }
+        }
+        if (changed.isEmpty() && !removed) {
+            // notes or folders which were not shown anyway
+            return;
+        }
+        if (!changed.isEmpty()) {
+            folders.addAll(changed.values());
+            Collections.sort(folders, MODIFIED_DATE_ORDER);
+        }
+        mFolders = Collections.unmodifiableList(folders);
+    }
+
+    public static class Folder {
+        private final long mId;
+        private final String mName;
+        private final long mModifiedDate;
+
+        private Folder(Cursor cursor) {
+            this(cursor.getLong(ID_COLUMN), cursor.getString(SNIPPET_COLUMN),
+                    cursor.getLong(MODIFIED_DATE_COLUMN));
+        }
+
+        private Folder(long id, String name, long modifiedDate) {
+            mId = id;
+            mName = name;
+            mModifiedDate = modifiedDate;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        /**
+         * @return the name of the folder, null for the root folder
+         */
+        public String getName() {
+            return mName;
+        }
+    }
+}
@@ -24,46 +24,140 @@ import android.content.Context;
 import android.content.OperationApplicationException;
 import android.net.Uri;
 import android.os.RemoteException;
+import android.text.TextUtils;
 import android.util.Log;
 
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.CallNote;
+import net.micode.notes.data.Notes.CheckListItem;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.RevisionColumns;
 import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.tool.CheckListUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 
 public class Note {
     private ContentValues mNoteDiffValues;//定义存储
     private NoteData mNoteData;
+    // journal of the text revisions, written in the batch of the text data
+    private RevisionJournal mRevisionJournal;
     private static final String TAG = "Note";
     /**
-     * Create a new note id for adding a new note to databases
+     * Insert the note with its pending changes and data rows in one provider batch, so they
+     * are created in a single transaction and notified together
+     * @return the id of the new note, or 0 if it could not be inserted
      */
-    public static synchronized long getNewNoteId(Context context, long folderId) {
-        // Create a new note in the database
-        ContentValues values = new ContentValues();//定义一个ContentValues的对象
+    public long insertNote(Context context, long folderId) {
+        ContentValues noteValues = new ContentValues();
         long createdTime = System.currentTimeMillis();//获取当前时间
-        values.put(NoteColumns.CREATED_DATE, createdTime);//将时间存入
-        values.put(NoteColumns.MODIFIED_DATE, createdTime);//将修改的时间存入
-        values.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
-        values.put(NoteColumns.LOCAL_MODIFIED, 1);//
-        values.put(NoteColumns.PARENT_ID, folderId);//将ID存入
-        Uri uri = context.getContentResolver().insert(Notes.CONTENT_NOTE_URI, values);
-
-        long noteId = 0;
+        noteValues.put(NoteColumns.CREATED_DATE, createdTime);//将时间存入
+        noteValues.put(NoteColumns.MODIFIED_DATE, createdTime);//将修改的时间存入
+        noteValues.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
+        noteValues.put(NoteColumns.LOCAL_MODIFIED, 1);//
+        noteValues.put(NoteColumns.PARENT_ID, folderId);//将ID存入
+
+        ContentValues noteDiffValues;
+        ContentValues textDataValues;
+        ContentValues callDataValues;
+        List<CheckListUtils.Item> checkListItems;
+        ContentValues revisionValues;
+        synchronized (this) {
+            // a call note changes the parent folder
+            noteDiffValues = new ContentValues(mNoteDiffValues);
+            noteValues.putAll(noteDiffValues);
+            textDataValues = new ContentValues(mNoteData.mTextDataValues);
+            callDataValues = new ContentValues(mNoteData.mCallDataValues);
+            checkListItems = mNoteData.mCheckListItems;
+            revisionValues = takeRevision();
+            mNoteDiffValues.clear();
+            mNoteData.mTextDataValues.clear();
+            mNoteData.mCallDataValues.clear();
+            mNoteData.mCheckListItems = null;
+        }
+
+        ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
+        operationList.add(ContentProviderOperation.newInsert(Notes.CONTENT_NOTE_URI)
+                .withValues(noteValues).build());
+        int callDataIndex = -1;
+        if (callDataValues.size() > 0) {
+            ContentValues values = new ContentValues(callDataValues);
+            values.put(DataColumns.MIME_TYPE, CallNote.CONTENT_ITEM_TYPE);
+            callDataIndex = operationList.size();
+            operationList.add(ContentProviderOperation.newInsert(Notes.CONTENT_DATA_URI)
+                    .withValues(values).withValueBackReference(DataColumns.NOTE_ID, 0)
+                    .build());
+        }
+        // the items are inserted before the text data, so their text is built once by the
+        // insert of the text data instead of once per item
+        ArrayList<StoredItem> checkListRows = null;
+        if (checkListItems != null) {
+            checkListRows = mNoteData.addCheckListOperations(checkListItems, 0, 0,
+                    operationList);
+        }
+        int textDataIndex = -1;
+        if (textDataValues.size() > 0) {
+            ContentValues values = new ContentValues(textDataValues);
+            values.put(DataColumns.MIME_TYPE, TextNote.CONTENT_ITEM_TYPE);
+            textDataIndex = operationList.size();
+            operationList.add(ContentProviderOperation.newInsert(Notes.CONTENT_DATA_URI)
+                    .withValues(values).withValueBackReference(DataColumns.NOTE_ID, 0)
+                    .build());
+        }
+        if (revisionValues != null) {
+            RevisionJournal.addOperations(revisionValues, 0, operationList);
+        }
+
+        ContentProviderResult[] results = null;
         try {
-            noteId = Long.valueOf(uri.getPathSegments().get(1));//一直获取noteID直到获得，返回1
-        } catch (NumberFormatException e) {
-            Log.e(TAG, "Get note id error :" + e.toString());//否则，打印程序中的错误信息(loge+tab)
-            noteId = 0;
+            results = context.getContentResolver().applyBatch(Notes.AUTHORITY, operationList);
+        } catch (RemoteException e) {
+            Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+        }
+        if (results == null || results.length != operationList.size()) {
+            Log.e(TAG, "Insert new note fail in folder " + folderId);
+            // keep the changes for the next save, unless they have been made again meanwhile
+            synchronized (this) {
+                putAbsent(mNoteDiffValues, noteDiffValues);
+                putAbsent(mNoteData.mTextDataValues, textDataValues);
+                putAbsent(mNoteData.mCallDataValues, callDataValues);
+                if (mNoteData.mCheckListItems == null) {
+                    mNoteData.mCheckListItems = checkListItems;
+                }
+            }
+            return 0;
+        }
+
+        long noteId = ContentUris.parseId(results[0].uri);
+        synchronized (this) {
+            if (textDataIndex >= 0) {
+                mNoteData.setTextDataId(ContentUris.parseId(results[textDataIndex].uri));
+            }
+            if (callDataIndex >= 0) {
+                mNoteData.setCallDataId(ContentUris.parseId(results[callDataIndex].uri));
+            }
+            if (checkListRows != null) {
+                mNoteData.setCheckListRows(checkListRows, results);
+            }
         }
-        if (noteId == -1) {
-            throw new IllegalStateException("Wrong note id:" + noteId);//如果没有获得noteID打印错误的ID
+        return noteId > 0 ? noteId : 0;
+    }
+
+    /**
+     * Put the values whose keys are not in the target
+     */
+    private static void putAbsent(ContentValues target, ContentValues values) {
+        ContentValues absent = new ContentValues(values);
+        for (String key : target.keySet()) {
+            absent.remove(key);
         }
-        return noteId;
+        target.putAll(absent);
     }
 
     public Note() {
@@ -71,33 +165,88 @@ public class Note {
         mNoteData = new NoteData();
     }
 
-    public void setNoteValue(String key, String value) {//修改的列名，值
+    public synchronized void setNoteValue(String key, String value) {//修改的列名，值
         mNoteDiffValues.put(key, value);
         mNoteDiffValues.put(NoteColumns.LOCAL_MODIFIED, 1);
         mNoteDiffValues.put(NoteColumns.MODIFIED_DATE, System.currentTimeMillis());
     }
 
-    public void setTextData(String key, String value) {//未修改的
+    public synchronized void setTextData(String key, String value) {//未修改的
         mNoteData.setTextData(key, value);
     }
 
-    public void setTextDataId(long id) {
+    /**
+     * The text data content is kept in the journal instead of written, it is written along
+     * with the next checkpoint of the journal unless set before
+     */
+    public synchronized void deferTextContent() {
+        mNoteData.mTextContentDeferred = true;
+    }
+
+    public synchronized void setRevisionJournal(RevisionJournal journal) {
+        mRevisionJournal = journal;
+    }
+
+    /**
+     * @return the values of the revision to write with the text data, or null
+     */
+    private ContentValues takeRevision() {
+        return mRevisionJournal != null ? mRevisionJournal.takeRevision() : null;
+    }
+
+    public synchronized void setTextDataId(long id) {
         mNoteData.setTextDataId(id);
     }
 
-    public long getTextDataId() {
+    public synchronized long getTextDataId() {
         return mNoteData.mTextDataId;
     }
 
-    public void setCallDataId(long id) {
+    public synchronized void setCallDataId(long id) {
         mNoteData.setCallDataId(id);
     }
 
-    public void setCallData(String key, String value) {
+    public synchronized void setCallData(String key, String value) {
         mNoteData.setCallData(key, value);
     }
 
-    public boolean isLocalModified() {//noteID是否进行了修改判断
+    /**
+     * Set the check list items stored with the note when it is loaded
+     * @param textContentEmpty whether the stored text data has no content
+     */
+    public synchronized void setCheckListRows(List<NoteRepository.CheckListRow> rows,
+            boolean textContentEmpty) {
+        ArrayList<StoredItem> items = new ArrayList<StoredItem>(rows.size());
+        for (NoteRepository.CheckListRow row : rows) {
+            items.add(new StoredItem(row.getId(), row.getText(), row.isChecked(),
+                    row.getPosition()));
+        }
+        mNoteData.mCheckListRows = items;
+        mNoteData.mTextContentEmpty = textContentEmpty;
+    }
+
+    /**
+     * Store the text of the note as check list items, only the items which differ from the
+     * stored ones are written
+     */
+    public synchronized void setCheckListItems(List<CheckListUtils.Item> items) {
+        if (!mNoteData.mTextContentEmpty) {
+            // the items are only shown once the text data is emptied
+            mNoteData.setTextData(DataColumns.CONTENT, "");
+        }
+        mNoteData.setCheckListItems(items);
+    }
+
+    /**
+     * Delete the stored check list items, once the text is back in the text data
+     */
+    public synchronized void clearCheckList() {
+        if (!mNoteData.mCheckListRows.isEmpty() || mNoteData.mCheckListItems != null) {
+            mNoteData.setCheckListItems(Collections.<CheckListUtils.Item>emptyList());
+        }
+    }
+
+    public synchronized boolean isLocalModified() {//noteID是否进行了修改判断
         return mNoteDiffValues.size() > 0 || mNoteData.isLocalModified();
     }
 
@@ -106,8 +255,14 @@ public class Note {
             throw new IllegalArgumentException("Wrong note id:" + noteId);
         }
 
-        if (!isLocalModified()) {
-            return true;//修改并合法返回true
+        // the changes are taken out under the lock, so they can be made while writing
+        ContentValues noteValues;
+        synchronized (this) {
+            if (!isLocalModified()) {
+                return true;//修改并合法返回true
+            }
+            noteValues = new ContentValues(mNoteDiffValues);
+            mNoteDiffValues.clear();//清除mNoteDiffValues中的数据避免数据的叠加。
         }
 
         /**
@@ -115,23 +270,51 @@ public class Note {
          * {@link NoteColumns#MODIFIED_DATE}. For data safety, though update note fails, we also update the
          * note data info
          */
-        if (context.getContentResolver().update(
-                ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), mNoteDiffValues, null,
+        if (noteValues.size() > 0 && context.getContentResolver().update(
+                ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), noteValues, null,
                 null) == 0) {/*假设给定的是：Uri.parse("content://com.ljq.providers.personprovider/person/10")，
             那么将会对主机名为com.ljq.providers.personprovider的ContentProvider进行操作，操作的数据为 person表中id为10的记录。*/
             Log.e(TAG, "Update note error, should not happen");
             // Do not return, fall through Log.e()：打印程序中的错误信息(loge+tab)
         }
-        mNoteDiffValues.clear();//清除mNoteDiffValues中的数据避免数据的叠加。
 
-        if (mNoteData.isLocalModified()
-                && (mNoteData.pushIntoContentResolver(context, noteId) == null)) {
+        boolean dataModified;
+        synchronized (this) {
+            dataModified = mNoteData.isLocalModified();
+        }
+        if (dataModified && (mNoteData.pushIntoContentResolver(context, noteId) == null)) {
             return false;//如果mNoteData被修改并且noteID没存入，返回false
         }
 
         return true;
     }
 
+    /**
+     * A stored check list item, or one to be inserted
+     */
+    private static class StoredItem {
+        private long mId;
+        private final String mText;
+        private final boolean mChecked;
+        private long mPosition;
+        // index of the operation inserting the item, or -1
+        private int mInsertIndex;
+
+        StoredItem(long id, String text, boolean checked, long position) {
+            mId = id;
+            mText = text;
+            mChecked = checked;
+            mPosition = position;
+            mInsertIndex = -1;
+        }
+    }
+
+    /**
+     * Content of a check list head while its items are written, any text which is not empty
+     * keeps the items from being shown, so their writes do not build the text of the note
+     */
+    private static final String DETACHED_HEAD_CONTENT = " ";
+
     private class NoteData {//定义变量
         private long mTextDataId;
 
@@ -141,6 +324,27 @@ public class Note {
 
         private ContentValues mCallDataValues;
 
+        /**
+         * The stored check list items in the order of their positions
+         */
+        private ArrayList<StoredItem> mCheckListRows;
+
+        /**
+         * The check list items to store, null if they are not changed
+         */
+        private List<CheckListUtils.Item> mCheckListItems;
+
+        /**
+         * Whether the content of the stored text data is empty, the items of a check list are
+         * only shown if it is
+         */
+        private boolean mTextContentEmpty;
+
+        /**
+         * Whether the content of the text data is older than the text stored in the journal
+         */
+        private boolean mTextContentDeferred;
+
         private static final String TAG = "NoteData";
 
         public NoteData() {//new
@@ -148,10 +352,14 @@ public class Note {
             mCallDataValues = new ContentValues();
             mTextDataId = 0;
             mCallDataId = 0;
+            mCheckListRows = new ArrayList<StoredItem>();
+            mTextContentEmpty = true;
         }
 
         boolean isLocalModified() {
-            return mTextDataValues.size() > 0 || mCallDataValues.size() > 0;
+            return mTextDataValues.size() > 0 || mCallDataValues.size() > 0
+                    || mCheckListItems != null
+                    || (mRevisionJournal != null && mRevisionJournal.hasPendingChange());
         }
 
         void setTextDataId(long id) {
@@ -176,10 +384,172 @@ public class Note {
 
         void setTextData(String key, String value) {//语句列
             mTextDataValues.put(key, value);
+            if (DataColumns.CONTENT.equals(key)) {
+                mTextContentEmpty = TextUtils.isEmpty(value);
+                mTextContentDeferred = false;
+            }
+            mNoteDiffValues.put(NoteColumns.LOCAL_MODIFIED, 1);
+            mNoteDiffValues.put(NoteColumns.MODIFIED_DATE, System.currentTimeMillis());
+        }
+
+        void setCheckListItems(List<CheckListUtils.Item> items) {
+            mCheckListItems = items;
             mNoteDiffValues.put(NoteColumns.LOCAL_MODIFIED, 1);
             mNoteDiffValues.put(NoteColumns.MODIFIED_DATE, System.currentTimeMillis());
         }
 
+        /**
+         * Add the operations storing the items in place of the stored rows. The unchanged
+         * items at the head and the tail keep their rows, so checking an item only updates
+         * its checked column, and the inserted items take positions between their neighbours
+         * so the rows after them are not moved.
+         * @param noteId the id of the note, or 0 for the note inserted by the first operation
+         * @param headId the id of the text data showing the stored items, which is detached
+         *        while more than one item changes the text, or 0
+         * @return the rows once the operations are applied, the inserted ones with the index
+         *         of their operation
+         */
+        ArrayList<StoredItem> addCheckListOperations(List<CheckListUtils.Item> items,
+                long noteId, long headId, ArrayList<ContentProviderOperation> operationList) {
+            ArrayList<StoredItem> stored;
+            synchronized (Note.this) {
+                stored = mCheckListRows;
+            }
+            int oldCount = stored.size();
+            int newCount = items.size();
+            int head = 0;
+            while (head < oldCount && head < newCount
+                    && stored.get(head).mText.equals(items.get(head).getText())) {
+                head++;
+            }
+            int tail = 0;
+            while (tail < oldCount - head && tail < newCount - head
+                    && stored.get(oldCount - 1 - tail).mText.equals(
+                            items.get(newCount - 1 - tail).getText())) {
+                tail++;
+            }
+            // the changed items in between take the stored rows in order, the others are
+            // deleted or inserted
+            int paired = Math.min(oldCount - head - tail, newCount - head - tail);
+            int insertStart = head + paired;
+            int insertEnd = newCount - tail;
+
+            ArrayList<StoredItem> rows = new ArrayList<StoredItem>(newCount);
+            StoredItem[] origins = new StoredItem[newCount];
+            for (int i = 0; i < newCount; i++) {
+                CheckListUtils.Item item = items.get(i);
+                if (i < insertStart) {
+                    origins[i] = stored.get(i);
+                } else if (i >= insertEnd) {
+                    origins[i] = stored.get(i - newCount + oldCount);
+                }
+                rows.add(new StoredItem(origins[i] != null ? origins[i].mId : 0, item.getText(),
+                        item.isChecked(), origins[i] != null ? origins[i].mPosition : 0));
+            }
+
+            int inserts = insertEnd - insertStart;
+            if (inserts > 0) {
+                long low = insertStart > 0 ? rows.get(insertStart - 1).mPosition : 0;
+                long high = insertEnd < newCount ? rows.get(insertEnd).mPosition
+                        : low + (inserts + 1) * CheckListUtils.POSITION_GAP;
+                for (int i = 0; i < inserts; i++) {
+                    rows.get(insertStart + i).mPosition = low + (high - low) * (i + 1)
+                            / (inserts + 1);
+                }
+            }
+            // number the items again when there is no room between the neighbours
+            boolean ascending = true;
+            for (int i = 1; i < newCount && ascending; i++) {
+                ascending = rows.get(i - 1).mPosition < rows.get(i).mPosition;
+            }
+            if (!ascending || (newCount > 0 && rows.get(0).mPosition <= 0)) {
+                for (int i = 0; i < newCount; i++) {
+                    rows.get(i).mPosition = CheckListUtils.positionOf(i);
+                }
+            }
+
+            ArrayList<ContentProviderOperation> itemOperations =
+                    new ArrayList<ContentProviderOperation>();
+            // the operations building the text of the note again while its items are shown
+            int textChanges = 0;
+            for (int i = insertStart; i < oldCount - tail; i++) {
+                itemOperations.add(ContentProviderOperation.newDelete(ContentUris.withAppendedId(
+                        Notes.CONTENT_DATA_URI, stored.get(i).mId)).build());
+                textChanges++;
+            }
+            for (int i = 0; i < newCount; i++) {
+                StoredItem row = rows.get(i);
+                StoredItem origin = origins[i];
+                ContentValues values = new ContentValues();
+                if (origin == null || !origin.mText.equals(row.mText)) {
+                    values.put(DataColumns.CONTENT, row.mText);
+                }
+                if (origin == null || origin.mChecked != row.mChecked) {
+                    values.put(CheckListItem.CHECKED, row.mChecked ? 1 : 0);
+                }
+                if (origin == null || origin.mPosition != row.mPosition) {
+                    values.put(CheckListItem.POSITION, row.mPosition);
+                }
+                if (origin == null) {
+                    values.put(DataColumns.MIME_TYPE, CheckListItem.CONTENT_ITEM_TYPE);
+                    ContentProviderOperation.Builder builder = ContentProviderOperation
+                            .newInsert(Notes.CONTENT_DATA_URI);
+                    if (noteId > 0) {
+                        values.put(DataColumns.NOTE_ID, noteId);
+                        builder.withValues(values);
+                    } else {
+                        builder.withValues(values).withValueBackReference(DataColumns.NOTE_ID, 0);
+                    }
+                    row.mInsertIndex = itemOperations.size();
+                    itemOperations.add(builder.build());
+                    textChanges++;
+                } else if (values.size() > 0) {
+                    itemOperations.add(ContentProviderOperation.newUpdate(
+                            ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, row.mId))
+                            .withValues(values).build());
+                    if (values.size() > 1 || !values.containsKey(CheckListItem.CHECKED)) {
+                        textChanges++;
+                    }
+                }
+            }
+
+            boolean detach = headId > 0 && textChanges > 1;
+            if (detach) {
+                operationList.add(newHeadOperation(headId, DETACHED_HEAD_CONTENT));
+            }
+            int firstIndex = operationList.size();
+            for (StoredItem row : rows) {
+                if (row.mInsertIndex >= 0) {
+                    row.mInsertIndex += firstIndex;
+                }
+            }
+            operationList.addAll(itemOperations);
+            if (detach) {
+                // the text of the items is built once, by showing them again
+                operationList.add(newHeadOperation(headId, ""));
+            }
+            return rows;
+        }
+
+        private ContentProviderOperation newHeadOperation(long headId, String content) {
+            return ContentProviderOperation.newUpdate(ContentUris.withAppendedId(
+                    Notes.CONTENT_DATA_URI, headId))
+                    .withValue(DataColumns.CONTENT, content).build();
+        }
+
+        /**
+         * Take the rows written by {@link #addCheckListOperations} as the stored ones
+         */
+        void setCheckListRows(ArrayList<StoredItem> rows, ContentProviderResult[] results) {
+            for (StoredItem row : rows) {
+                if (row.mInsertIndex >= 0) {
+                    row.mId = ContentUris.parseId(results[row.mInsertIndex].uri);
+                    row.mInsertIndex = -1;
+                }
+            }
+            mCheckListRows = rows;
+        }
+
         Uri pushIntoContentResolver(Context context, long noteId) {//存储文本和ID
             /**
              * Check for safety
@@ -191,65 +561,129 @@ public class Note {
             ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
             ContentProviderOperation.Builder builder = null;//？
 
-            if(mTextDataValues.size() > 0) {//文本不为空
-                mTextDataValues.put(DataColumns.NOTE_ID, noteId);
-                if (mTextDataId == 0) {
-                    mTextDataValues.put(DataColumns.MIME_TYPE, TextNote.CONTENT_ITEM_TYPE);
+            ContentValues textDataValues;
+            ContentValues callDataValues;
+            List<CheckListUtils.Item> checkListItems;
+            ContentValues revisionValues;
+            long textDataId;
+            long callDataId;
+            boolean textContentEmpty;
+            synchronized (Note.this) {
+                textDataValues = new ContentValues(mTextDataValues);
+                callDataValues = new ContentValues(mCallDataValues);
+                checkListItems = mCheckListItems;
+                revisionValues = takeRevision();
+                textDataId = mTextDataId;
+                callDataId = mCallDataId;
+                textContentEmpty = mTextContentEmpty;
+                if (mTextContentDeferred && revisionValues != null
+                        && revisionValues.getAsInteger(RevisionColumns.DEPTH) == 0) {
+                    // a checkpoint holds the whole text, which is written along
+                    textDataValues.put(DataColumns.CONTENT,
+                            revisionValues.getAsString(RevisionColumns.TEXT));
+                    mTextContentDeferred = false;
+                }
+                mTextDataValues.clear();
+                mCallDataValues.clear();
+                mCheckListItems = null;
+            }
+
+            // the text data showing the items is written after them, so their text is built
+            // once instead of once per item
+            boolean headAfterItems = checkListItems != null && textContentEmpty;
+            ContentProviderOperation headOperation = null;
+            if(textDataValues.size() > 0) {//文本不为空
+                textDataValues.put(DataColumns.NOTE_ID, noteId);
+                if (textDataId == 0) {
+                    textDataValues.put(DataColumns.MIME_TYPE, TextNote.CONTENT_ITEM_TYPE);
                     Uri uri = context.getContentResolver().insert(Notes.CONTENT_DATA_URI,
-                            mTextDataValues);
+                            textDataValues);
                     try {
-                        setTextDataId(Long.valueOf(uri.getPathSegments().get(1)));
+                        long id = Long.valueOf(uri.getPathSegments().get(1));
+                        synchronized (Note.this) {
+                            setTextDataId(id);
+                        }
                     } catch (NumberFormatException e) {
                         Log.e(TAG, "Insert new text data fail with noteId" + noteId);//打印程序中的错误信息，某ID插入文本失败
-                        mTextDataValues.clear();//清空文本
                         return null;
                     }
                 } else {
                     builder = ContentProviderOperation.newUpdate(ContentUris.withAppendedId(
-                            Notes.CONTENT_DATA_URI, mTextDataId));
-                    builder.withValues(mTextDataValues);
-                    operationList.add(builder.build());
+                            Notes.CONTENT_DATA_URI, textDataId));
+                    builder.withValues(textDataValues);
+                    headOperation = builder.build();
+                    if (!headAfterItems) {
+                        operationList.add(headOperation);
+                    }
                 }
-                mTextDataValues.clear();
             }
 
-            if(mCallDataValues.size() > 0) {
-                mCallDataValues.put(DataColumns.NOTE_ID, noteId);
-                if (mCallDataId == 0) {
-                    mCallDataValues.put(DataColumns.MIME_TYPE, CallNote.CONTENT_ITEM_TYPE);
+            if(callDataValues.size() > 0) {
+                callDataValues.put(DataColumns.NOTE_ID, noteId);
+                if (callDataId == 0) {
+                    callDataValues.put(DataColumns.MIME_TYPE, CallNote.CONTENT_ITEM_TYPE);
                     Uri uri = context.getContentResolver().insert(Notes.CONTENT_DATA_URI,
-                            mCallDataValues);
+                            callDataValues);
                     try {
-                        setCallDataId(Long.valueOf(uri.getPathSegments().get(1)));
+                        long id = Long.valueOf(uri.getPathSegments().get(1));
+                        synchronized (Note.this) {
+                            setCallDataId(id);
+                        }
                     } catch (NumberFormatException e) {
                         Log.e(TAG, "Insert new call data fail with noteId" + noteId);
-                        mCallDataValues.clear();
                         return null;
                     }
                 } else {
                     builder = ContentProviderOperation.newUpdate(ContentUris.withAppendedId(
-                            Notes.CONTENT_DATA_URI, mCallDataId));
-                    builder.withValues(mCallDataValues);
+                            Notes.CONTENT_DATA_URI, callDataId));
+                    builder.withValues(callDataValues);
                     operationList.add(builder.build());
                 }
-                mCallDataValues.clear();
             }
 
-            if (operationList.size() > 0) {
-                try {
-                    ContentProviderResult[] results = context.getContentResolver().applyBatch(
-                            Notes.AUTHORITY, operationList);
-                    return (results == null || results.length == 0 || results[0] == null) ? null
-                            : ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId);
-                } catch (RemoteException e) {
-                    Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
-                    return null;
-                } catch (OperationApplicationException e) {
-                    Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+            ArrayList<StoredItem> checkListRows = null;
+            if (checkListItems != null) {
+                // a head which already shows the stored items is detached while they change
+                long headId = headAfterItems && !textDataValues.containsKey(DataColumns.CONTENT)
+                        ? textDataId : 0;
+                checkListRows = addCheckListOperations(checkListItems, noteId, headId,
+                        operationList);
+            }
+            if (headOperation != null && headAfterItems) {
+                operationList.add(headOperation);
+            }
+            if (revisionValues != null) {
+                RevisionJournal.addOperations(revisionValues, noteId, operationList);
+            }
+
+            if (operationList.isEmpty()) {
+                // the changes map to the stored rows, such as a blank trimmed from an item
+                if (checkListRows != null) {
+                    synchronized (Note.this) {
+                        setCheckListRows(checkListRows, new ContentProviderResult[0]);
+                    }
+                }
+                return ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId);
+            }
+            try {
+                ContentProviderResult[] results = context.getContentResolver().applyBatch(
+                        Notes.AUTHORITY, operationList);
+                if (results == null || results.length == 0 || results[0] == null) {
                     return null;
                 }
+                if (checkListRows != null) {
+                    synchronized (Note.this) {
+                        setCheckListRows(checkListRows, results);
+                    }
+                }
+                return ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId);
+            } catch (RemoteException e) {
+                Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+                return null;
+            } catch (OperationApplicationException e) {
+                Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+                return null;
             }
-            return null;
         }
     }
 }
@@ -0,0 +1,675 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.model;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.tool.CheckListUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process wide cache of the note rows and their text data, shared by the editor, the alarm
+ * and the widgets. Both are kept in bounded caches keyed by note id, a cached body is only
+ * served for the version of the note it was loaded with. The entries are evicted by the
+ * change notifications of the notes provider, and by {@link #invalidate} for the writes of
+ * this process which need to be seen before the notification arrives. All methods can be
+ * called from any thread, the ones starting with get and {@link #prefetch} may query the
+ * provider.
+ */
+public class NoteRepository {
+    private static final String TAG = "NoteRepository";
+
+    private static final int MAX_CACHED_HEADERS = 256;
+
+    /**
+     * Bound of the cached bodies in characters of content
+     */
+    private static final int MAX_CACHED_BODY_CHARS = 256 * 1024;
+
+    private static final String[] HEADER_PROJECTION = new String[] {
+        NoteColumns.ID,
+        NoteColumns.PARENT_ID,
+        NoteColumns.TYPE,
+        NoteColumns.ALERTED_DATE,
+        NoteColumns.BG_COLOR_ID,
+        NoteColumns.WIDGET_ID,
+        NoteColumns.WIDGET_TYPE,
+        NoteColumns.MODIFIED_DATE,
+        NoteColumns.SNIPPET,
+        NoteColumns.VERSION
+    };
+
+    private static final int HEADER_ID_COLUMN            = 0;
+    private static final int HEADER_PARENT_ID_COLUMN     = 1;
+    private static final int HEADER_TYPE_COLUMN          = 2;
+    private static final int HEADER_ALERTED_DATE_COLUMN  = 3;
+    private static final int HEADER_BG_COLOR_ID_COLUMN   = 4;
+    private static final int HEADER_WIDGET_ID_COLUMN     = 5;
+    private static final int HEADER_WIDGET_TYPE_COLUMN   = 6;
+    private static final int HEADER_MODIFIED_DATE_COLUMN = 7;
+    private static final int HEADER_SNIPPET_COLUMN       = 8;
+    private static final int HEADER_VERSION_COLUMN       = 9;
+
+    private static final String[] BODY_PROJECTION = new String[] {
+        DataColumns.ID,
+        DataColumns.NOTE_ID,
+        DataColumns.MIME_TYPE,
+        DataColumns.CONTENT,
+        DataColumns.DATA1,
+        DataColumns.DATA2
+    };
+
+    private static final int BODY_ID_COLUMN        = 0;
+    private static final int BODY_NOTE_ID_COLUMN   = 1;
+    private static final int BODY_MIME_TYPE_COLUMN = 2;
+    private static final int BODY_CONTENT_COLUMN   = 3;
+    // the mode of a text data, the checked state of a check list item
+    private static final int BODY_DATA1_COLUMN     = 4;
+    private static final int BODY_POSITION_COLUMN  = 5;
+
+    private static final Comparator<CheckListRow> POSITION_ORDER = new Comparator<CheckListRow>() {
+        public int compare(CheckListRow lhs, CheckListRow rhs) {
+            if (lhs.mPosition != rhs.mPosition) {
+                return lhs.mPosition < rhs.mPosition ? -1 : 1;
+            }
+            return lhs.mId < rhs.mId ? -1 : (lhs.mId == rhs.mId ? 0 : 1);
+        }
+    };
+
+    /**
+     * Notes loaded by one prefetch query, each note takes one argument of the selection
+     */
+    private static final int MAX_NOTES_PER_PREFETCH = 50;
+
+    private static NoteRepository sInstance;
+
+    private final ContentResolver mResolver;
+
+    private final LruCache<Long, NoteHeader> mHeaders;
+
+    private final LruCache<Long, NoteBody> mBodies;
+
+    private int mBodyRequests;
+
+    private int mBodyHits;
+
+    /**
+     * Increased by every eviction, rows queried before are not cached afterwards
+     */
+    private int mGeneration;
+
+    /**
+     * Count of the unpaired {@link #suspendCaching} calls, the caches are bypassed meanwhile
+     */
+    private int mSuspendCount;
+
+    public static synchronized NoteRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NoteRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private NoteRepository(Context context) {
+        mResolver = context.getContentResolver();
+        mHeaders = new LruCache<Long, NoteHeader>(MAX_CACHED_HEADERS);
+        mBodies = new LruCache<Long, NoteBody>(MAX_CACHED_BODY_CHARS) {
+            @Override
+            protected int sizeOf(Long key, NoteBody value) {
+                return value.getContent().length() + 1;
+            }
+        };
+        mResolver.registerContentObserver(Notes.CONTENT_NOTE_URI, true,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidateAll();
+                    }
+
+                    @Override
+                    public void onChange(boolean selfChange, Uri uri) {
+                        long noteId = parseNoteId(uri);
+                        if (noteId > 0) {
+                            invalidate(noteId);
+                        } else {
+                            invalidateAll();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Get the note row, queried if it is not cached
+     * @return the note, or null if there is no such note
+     * @throws IllegalArgumentException if the provider can not be queried
+     */
+    public NoteHeader getHeader(long noteId) {
+        NoteHeader header = isCaching() ? mHeaders.get(noteId) : null;
+        if (header != null) {
+            return header;
+        }
+
+        int generation = getGeneration();
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI,
+                noteId), HEADER_PROJECTION, null, null, null);
+        if (cursor == null) {
+            Log.e(TAG, "No note with id:" + noteId);
+            throw new IllegalArgumentException("Unable to find note with id " + noteId);
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                header = new NoteHeader(cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (header != null) {
+            synchronized (this) {
+                if (generation == mGeneration && mSuspendCount == 0) {
+                    mHeaders.put(noteId, header);
+                }
+            }
+        }
+        return header;
+    }
+
+    /**
+     * Get the text data of the note, queried if it is not cached for the current version of
+     * the note
+     * @throws IllegalArgumentException if the provider can not be queried
+     */
+    public NoteBody getBody(long noteId) {
+        int generation = getGeneration();
+        NoteHeader header = getHeader(noteId);
+        NoteBody body = getCachedBody(noteId, header);
+        countBodyRequest(body != null);
+        if (body != null) {
+            return body;
+        }
+
+        Cursor cursor = mResolver.query(Notes.CONTENT_DATA_URI, BODY_PROJECTION,
+                DataColumns.NOTE_ID + "=?", new String[] {
+                    String.valueOf(noteId)
+                }, null);
+        if (cursor == null) {
+            Log.e(TAG, "No data with id:" + noteId);
+            throw new IllegalArgumentException("Unable to find note's data with id " + noteId);
+        }
+        HashMap<Long, NoteBody> bodies;
+        try {
+            bodies = readBodies(cursor, Collections.singletonMap(noteId, header));
+        } finally {
+            cursor.close();
+        }
+        body = bodies.get(noteId);
+        if (body == null) {
+            body = new NoteBody(0, null, 0, 0, header != null ? header.getVersion() : -1);
+        }
+
+        if (header != null) {
+            synchronized (this) {
+                if (generation == mGeneration && mSuspendCount == 0) {
+                    mBodies.put(noteId, body);
+                }
+            }
+        }
+        return body;
+    }
+
+    /**
+     * Load the rows and the text data of the notes which are not cached yet, with one query
+     * for the rows and one for the data of every {@link #MAX_NOTES_PER_PREFETCH} notes.
+     * Called off the UI thread for the notes the user is likely to open.
+     */
+    public void prefetch(long[] noteIds) {
+        if (!isCaching()) {
+            return;
+        }
+        ArrayList<Long> missing = new ArrayList<Long>();
+        for (long noteId : noteIds) {
+            if (getCachedBody(noteId, mHeaders.get(noteId)) == null) {
+                missing.add(noteId);
+            }
+        }
+        for (int start = 0; start < missing.size(); start += MAX_NOTES_PER_PREFETCH) {
+            prefetchBatch(missing.subList(start,
+                    Math.min(missing.size(), start + MAX_NOTES_PER_PREFETCH)));
+        }
+    }
+
+    private void prefetchBatch(List<Long> noteIds) {
+        int generation = getGeneration();
+        String[] selectionArgs = new String[noteIds.size()];
+        StringBuilder inClause = new StringBuilder(" IN (");
+        for (int i = 0; i < selectionArgs.length; i++) {
+            inClause.append(i > 0 ? ",?" : "?");
+            selectionArgs[i] = String.valueOf(noteIds.get(i));
+        }
+        inClause.append(")");
+
+        HashMap<Long, NoteHeader> headers = new HashMap<Long, NoteHeader>();
+        Cursor cursor = mResolver.query(Notes.CONTENT_NOTE_URI, HEADER_PROJECTION,
+                NoteColumns.ID + inClause, selectionArgs, null);
+        if (cursor == null) {
+            Log.e(TAG, "Prefetch notes failed");
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                NoteHeader header = new NoteHeader(cursor);
+                headers.put(header.getId(), header);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        HashMap<Long, NoteBody> bodies;
+        cursor = mResolver.query(Notes.CONTENT_DATA_URI, BODY_PROJECTION,
+                DataColumns.NOTE_ID + inClause, selectionArgs, null);
+        if (cursor == null) {
+            Log.e(TAG, "Prefetch notes data failed");
+            return;
+        }
+        try {
+            bodies = readBodies(cursor, headers);
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            if (generation != mGeneration || mSuspendCount > 0) {
+                return;
+            }
+            for (NoteHeader header : headers.values()) {
+                NoteBody body = bodies.get(header.getId());
+                if (body == null) {
+                    body = new NoteBody(0, null, 0, 0, header.getVersion());
+                }
+                mHeaders.put(header.getId(), header);
+                mBodies.put(header.getId(), body);
+            }
+        }
+    }
+
+    /**
+     * @return the share of {@link #getBody} calls served from the cache, between 0 and 1
+     */
+    public synchronized float getBodyHitRate() {
+        return mBodyRequests > 0 ? (float) mBodyHits / mBodyRequests : 0;
+    }
+
+    /**
+     * @return the count of {@link #getBody} calls
+     */
+    public synchronized int getBodyRequestCount() {
+        return mBodyRequests;
+    }
+
+    /**
+     * @return true if there is a note of the type which is not in the trash folder
+     */
+    public boolean isVisible(long noteId, int type) {
+        NoteHeader header = getHeader(noteId);
+        return header != null && header.getType() == type
+                && header.getParentId() != Notes.ID_TRASH_FOLER;
+    }
+
+    /**
+     * Drop the cached rows of the note, called after changing it in this process
+     */
+    public void invalidate(long noteId) {
+        synchronized (this) {
+            mGeneration++;
+        }
+        mHeaders.remove(noteId);
+        mBodies.remove(noteId);
+    }
+
+    public void invalidateAll() {
+        synchronized (this) {
+            mGeneration++;
+        }
+        mHeaders.evictAll();
+        mBodies.evictAll();
+    }
+
+    /**
+     * Called before the notes are written with the change notifications of the provider held
+     * back, the cached rows would not be evicted by these writes, so the notes are queried
+     * until {@link #resumeCaching}
+     */
+    public void suspendCaching() {
+        synchronized (this) {
+            mSuspendCount++;
+        }
+        invalidateAll();
+    }
+
+    public void resumeCaching() {
+        synchronized (this) {
+            if (mSuspendCount == 0) {
+                Log.w(TAG, "Resume caching without suspending, should not happen");
+                return;
+            }
+            mSuspendCount--;
+        }
+        // the rows queried from now on are not older than the held back notifications
+        invalidateAll();
+    }
+
+    private synchronized boolean isCaching() {
+        return mSuspendCount == 0;
+    }
+
+    private synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    private NoteBody getCachedBody(long noteId, NoteHeader header) {
+        if (header == null || !isCaching()) {
+            return null;
+        }
+        NoteBody body = mBodies.get(noteId);
+        if (body == null || body.getVersion() != header.getVersion()) {
+            return null;
+        }
+        return body;
+    }
+
+    /**
+     * Count the request for {@link #getBodyHitRate}
+     */
+    private synchronized void countBodyRequest(boolean hit) {
+        mBodyRequests++;
+        if (hit) {
+            mBodyHits++;
+        }
+    }
+
+    /**
+     * Read the data rows of the notes, which may be in any order
+     * @return the bodies keyed by note id, with the versions of the headers
+     */
+    private static HashMap<Long, NoteBody> readBodies(Cursor cursor,
+            Map<Long, NoteHeader> headers) {
+        HashMap<Long, NoteBody> bodies = new HashMap<Long, NoteBody>();
+        HashMap<Long, ArrayList<CheckListRow>> checkLists = new HashMap<Long, ArrayList<CheckListRow>>();
+        while (cursor.moveToNext()) {
+            long noteId = cursor.getLong(BODY_NOTE_ID_COLUMN);
+            NoteHeader header = headers.get(noteId);
+            NoteBody body = bodies.get(noteId);
+            if (body == null) {
+                body = new NoteBody(0, null, 0, 0, header != null ? header.getVersion() : -1);
+            }
+            String type = cursor.getString(BODY_MIME_TYPE_COLUMN);
+            if (DataConstants.NOTE.equals(type)) {
+                body = new NoteBody(cursor.getLong(BODY_ID_COLUMN),
+                        cursor.getString(BODY_CONTENT_COLUMN), cursor.getInt(BODY_DATA1_COLUMN),
+                        body.getCallDataId(), body.getVersion());
+            } else if (DataConstants.CALL_NOTE.equals(type)) {
+                body = new NoteBody(body.getTextDataId(), body.getContent(), body.getMode(),
+                        cursor.getLong(BODY_ID_COLUMN), body.getVersion());
+            } else if (DataConstants.CHECK_LIST_ITEM.equals(type)) {
+                ArrayList<CheckListRow> rows = checkLists.get(noteId);
+                if (rows == null) {
+                    rows = new ArrayList<CheckListRow>();
+                    checkLists.put(noteId, rows);
+                }
+                rows.add(new CheckListRow(cursor.getLong(BODY_ID_COLUMN),
+                        cursor.getString(BODY_CONTENT_COLUMN),
+                        cursor.getInt(BODY_DATA1_COLUMN) != 0,
+                        cursor.getLong(BODY_POSITION_COLUMN)));
+            } else {
+                Log.d(TAG, "Wrong note type with type:" + type);
+            }
+            bodies.put(noteId, body);
+        }
+
+        for (Map.Entry<Long, ArrayList<CheckListRow>> entry : checkLists.entrySet()) {
+            ArrayList<CheckListRow> rows = entry.getValue();
+            Collections.sort(rows, POSITION_ORDER);
+            NoteBody body = bodies.get(entry.getKey());
+            bodies.put(entry.getKey(), new NoteBody(body.getTextDataId(), body.getContent(),
+                    body.getMode(), body.getCallDataId(), body.getVersion(),
+                    Collections.unmodifiableList(rows)));
+        }
+        return bodies;
+    }
+
+    /**
+     * @return the id of a single note uri, or 0 for other uris
+     */
+    static long parseNoteId(Uri uri) {
+        if (uri == null) {
+            return 0;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !"note".equals(segments.get(0))) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(segments.get(1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * The columns of a note row used to open or show it
+     */
+    public static class NoteHeader {
+        private final long mId;
+        private final long mParentId;
+        private final int mType;
+        private final long mAlertDate;
+        private final int mBgColorId;
+        private final int mWidgetId;
+        private final int mWidgetType;
+        private final long mModifiedDate;
+        private final String mSnippet;
+        private final long mVersion;
+
+        private NoteHeader(Cursor cursor) {
+            mId = cursor.getLong(HEADER_ID_COLUMN);
+            mParentId = cursor.getLong(HEADER_PARENT_ID_COLUMN);
+            mType = cursor.getInt(HEADER_TYPE_COLUMN);
+            mAlertDate = cursor.getLong(HEADER_ALERTED_DATE_COLUMN);
+            mBgColorId = cursor.getInt(HEADER_BG_COLOR_ID_COLUMN);
+            mWidgetId = cursor.getInt(HEADER_WIDGET_ID_COLUMN);
+            mWidgetType = cursor.getInt(HEADER_WIDGET_TYPE_COLUMN);
+            mModifiedDate = cursor.getLong(HEADER_MODIFIED_DATE_COLUMN);
+            String snippet = cursor.getString(HEADER_SNIPPET_COLUMN);
+            mSnippet = snippet != null ? snippet : "";
+            mVersion = cursor.getLong(HEADER_VERSION_COLUMN);
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public long getParentId() {
+            return mParentId;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        public long getAlertDate() {
+            return mAlertDate;
+        }
+
+        public int getBgColorId() {
+            return mBgColorId;
+        }
+
+        public int getWidgetId() {
+            return mWidgetId;
+        }
+
+        public int getWidgetType() {
+            return mWidgetType;
+        }
+
+        public long getModifiedDate() {
+            return mModifiedDate;
+        }
+
+        public String getSnippet() {
+            return mSnippet;
+        }
+
+        public long getVersion() {
+            return mVersion;
+        }
+    }
+
+    /**
+     * The data rows of a note, the ids are 0 if the note has no such row
+     */
+    public static class NoteBody {
+        private final long mTextDataId;
+        private final String mContent;
+        private final boolean mCheckListHead;
+        private final int mMode;
+        private final long mCallDataId;
+        private final long mVersion;
+        private final List<CheckListRow> mCheckListRows;
+
+        private NoteBody(long textDataId, String content, int mode, long callDataId,
+                long version) {
+            this(textDataId, content, mode, callDataId, version,
+                    Collections.<CheckListRow>emptyList());
+        }
+
+        private NoteBody(long textDataId, String content, int mode, long callDataId,
+                long version, List<CheckListRow> checkListRows) {
+            mTextDataId = textDataId;
+            mMode = mode;
+            mCallDataId = callDataId;
+            mVersion = version;
+            mCheckListRows = checkListRows;
+            // the items hold the text unless it is still in the text data
+            mCheckListHead = mode == TextNote.MODE_CHECK_LIST && (content == null
+                    || content.length() == 0);
+            if (mCheckListHead) {
+                StringBuilder sb = new StringBuilder();
+                for (CheckListRow row : checkListRows) {
+                    CheckListUtils.appendItem(sb, row.getText(), row.isChecked());
+                }
+                mContent = sb.toString();
+            } else {
+                mContent = content != null ? content : "";
+            }
+        }
+
+        public long getTextDataId() {
+            return mTextDataId;
+        }
+
+        /**
+         * @return the text of the note, for a check list stored as items it is built from
+         *         the items
+         */
+        public String getContent() {
+            return mContent;
+        }
+
+        /**
+         * @return true if the text data is the head of a check list stored as items, its own
+         *         content is empty
+         */
+        public boolean isCheckListHead() {
+            return mCheckListHead;
+        }
+
+        /**
+         * @return the stored check list items in the order of their positions, they are not
+         *         shown unless {@link #isCheckListHead}
+         */
+        public List<CheckListRow> getCheckListRows() {
+            return mCheckListRows;
+        }
+
+        public int getMode() {
+            return mMode;
+        }
+
+        public long getCallDataId() {
+            return mCallDataId;
+        }
+
+        /**
+         * @return the version of the note the data was loaded with
+         */
+        public long getVersion() {
+            return mVersion;
+        }
+    }
+
+    /**
+     * A stored item of a check list
+     */
+    public static class CheckListRow {
+        private final long mId;
+        private final String mText;
+        private final boolean mChecked;
+        private final long mPosition;
+
+        CheckListRow(long id, String text, boolean checked, long position) {
+            mId = id;
+            mText = text != null ? text : "";
+            mChecked = checked;
+            mPosition = position;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public String getText() {
+            return mText;
+        }
+
+        public boolean isChecked() {
+            return mChecked;
+        }
+
+        public long getPosition() {
+            return mPosition;
+        }
+    }
+}
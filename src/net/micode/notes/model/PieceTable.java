@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.model;
+
+import java.util.ArrayList;
+
+/**
+ * Text of a note kept as pieces of the loaded text and of an append only buffer of the typed
+ * text, so an edit never copies the rest of the text. {@link #toString} builds the text once
+ * and keeps it as the only piece until the next edit. The range changed since the latest
+ * {@link #markRevision} is tracked, so a save can store the change instead of the text. Not
+ * thread safe, used on the UI thread.
+ */
+public class PieceTable implements CharSequence {
+    /**
+     * Count of pieces above which the text is built again into a single piece
+     */
+    private static final int MAX_PIECES = 1024;
+
+    private String mOriginal;
+
+    private final StringBuilder mAdded;
+
+    private final ArrayList<Piece> mPieces;
+
+    private int mLength;
+
+    /**
+     * Incremented by every edit which may change the text
+     */
+    private int mModCount;
+
+    /**
+     * The text built by {@link #toString}, null after an edit
+     */
+    private String mText;
+
+    /**
+     * Length of the text at the latest {@link #markRevision}, and the count of characters at
+     * the head and the tail of the text which are not changed since. The head is -1 while
+     * nothing is changed.
+     */
+    private int mRevisionLength;
+    private int mUnchangedHead;
+    private int mUnchangedTail;
+
+    /**
+     * Piece last read by {@link #charAt} and its offset, so a scan of the text does not look
+     * up the piece of every character again
+     */
+    private int mCursorPiece;
+    private int mCursorStart;
+
+    public PieceTable(String text) {
+        mAdded = new StringBuilder();
+        mPieces = new ArrayList<Piece>();
+        reset(text);
+    }
+
+    /**
+     * Replace the whole text, the former pieces are dropped and the text is marked as a
+     * revision
+     */
+    public void reset(String text) {
+        setPieces(text != null ? text : "");
+        mModCount++;
+        markRevision();
+    }
+
+    /**
+     * Replace the text with the given one, only the range between their common head and tail
+     * is changed
+     */
+    public void replaceAll(String text) {
+        if (text == null) {
+            text = "";
+        }
+        int max = Math.min(mLength, text.length());
+        int head = 0;
+        while (head < max && charAt(head) == text.charAt(head)) {
+            head++;
+        }
+        int tail = 0;
+        while (tail < max - head
+                && charAt(mLength - 1 - tail) == text.charAt(text.length() - 1 - tail)) {
+            tail++;
+        }
+        replace(head, mLength - tail, text, head, text.length() - tail);
+    }
+
+    private void setPieces(String text) {
+        mOriginal = text;
+        mAdded.setLength(0);
+        mAdded.trimToSize();
+        mPieces.clear();
+        if (mOriginal.length() > 0) {
+            mPieces.add(new Piece(false, 0, mOriginal.length()));
+        }
+        mLength = mOriginal.length();
+        mText = mOriginal;
+        resetCursor();
+    }
+
+    /**
+     * Replace the range of the text between start and end with the range of the given text
+     * between textStart and textEnd
+     */
+    public void replace(int start, int end, CharSequence text, int textStart, int textEnd) {
+        if (start < 0 || end < start || end > mLength) {
+            throw new IndexOutOfBoundsException("Replace " + start + "-" + end + " of "
+                    + mLength);
+        }
+        int count = textEnd - textStart;
+        if (start == end && count == 0) {
+            return;
+        }
+
+        if (mUnchangedHead < 0) {
+            mUnchangedHead = start;
+            mUnchangedTail = mLength - end;
+        } else {
+            mUnchangedHead = Math.min(mUnchangedHead, start);
+            mUnchangedTail = Math.min(mUnchangedTail, mLength - end);
+        }
+
+        int first = splitAt(start);
+        int last = splitAt(end);
+        for (int i = last - 1; i >= first; i--) {
+            mPieces.remove(i);
+        }
+        if (count > 0) {
+            Piece previous = first > 0 ? mPieces.get(first - 1) : null;
+            if (previous != null && previous.mAdded
+                    && previous.mStart + previous.mLength == mAdded.length()) {
+                // typing goes on at the end of the former insertion
+                previous.mLength += count;
+            } else {
+                mPieces.add(first, new Piece(true, mAdded.length(), count));
+            }
+            mAdded.append(text, textStart, textEnd);
+        }
+        mLength += count - (end - start);
+        mText = null;
+        mModCount++;
+        resetCursor();
+
+        if (mPieces.size() > MAX_PIECES) {
+            toString();
+        }
+    }
+
+    public int getModCount() {
+        return mModCount;
+    }
+
+    /**
+     * Take the current text as the revision the next changes are tracked from
+     */
+    public void markRevision() {
+        mRevisionLength = mLength;
+        mUnchangedHead = -1;
+        mUnchangedTail = 0;
+    }
+
+    public boolean isChangedSinceRevision() {
+        return mUnchangedHead >= 0;
+    }
+
+    /**
+     * @return the count of characters at the head not changed since the revision
+     */
+    public int getUnchangedHead() {
+        return mUnchangedHead >= 0 ? mUnchangedHead : mLength;
+    }
+
+    /**
+     * @return the count of characters at the tail not changed since the revision
+     */
+    public int getUnchangedTail() {
+        return mUnchangedHead >= 0 ? mUnchangedTail : 0;
+    }
+
+    public int getRevisionLength() {
+        return mRevisionLength;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= mLength) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + mLength);
+        }
+        while (index < mCursorStart) {
+            mCursorStart -= mPieces.get(--mCursorPiece).mLength;
+        }
+        Piece piece = mPieces.get(mCursorPiece);
+        while (index >= mCursorStart + piece.mLength) {
+            mCursorStart += piece.mLength;
+            piece = mPieces.get(++mCursorPiece);
+        }
+        int offset = piece.mStart + index - mCursorStart;
+        return piece.mAdded ? mAdded.charAt(offset) : mOriginal.charAt(offset);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end < start || end > mLength) {
+            throw new IndexOutOfBoundsException("Range " + start + "-" + end + " of "
+                    + mLength);
+        }
+        if (mText != null) {
+            return mText.substring(start, end);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        int pieceStart = 0;
+        for (Piece piece : mPieces) {
+            int pieceEnd = pieceStart + piece.mLength;
+            if (pieceEnd > start && pieceStart < end) {
+                int from = piece.mStart + Math.max(start, pieceStart) - pieceStart;
+                int to = piece.mStart + Math.min(end, pieceEnd) - pieceStart;
+                sb.append(piece.mAdded ? mAdded : mOriginal, from, to);
+            }
+            if (pieceEnd >= end) {
+                break;
+            }
+            pieceStart = pieceEnd;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Build the text and keep it as the only piece, so the returned string is shared with the
+     * table instead of being another copy of the text
+     */
+    @Override
+    public String toString() {
+        if (mText != null) {
+            return mText;
+        }
+        StringBuilder sb = new StringBuilder(mLength);
+        for (Piece piece : mPieces) {
+            sb.append(piece.mAdded ? mAdded : mOriginal, piece.mStart,
+                    piece.mStart + piece.mLength);
+        }
+        String text = sb.toString();
+        // the same text, so the mod count and the changed range are kept
+        setPieces(text);
+        return text;
+    }
+
+    /**
+     * @return the index of the piece starting at the offset, the piece across it is split
+     */
+    private int splitAt(int offset) {
+        int pieceStart = 0;
+        for (int i = 0; i < mPieces.size(); i++) {
+            Piece piece = mPieces.get(i);
+            if (offset == pieceStart) {
+                return i;
+            }
+            if (offset < pieceStart + piece.mLength) {
+                int head = offset - pieceStart;
+                mPieces.add(i + 1, new Piece(piece.mAdded, piece.mStart + head,
+                        piece.mLength - head));
+                piece.mLength = head;
+                return i + 1;
+            }
+            pieceStart += piece.mLength;
+        }
+        return mPieces.size();
+    }
+
+    private void resetCursor() {
+        mCursorPiece = 0;
+        mCursorStart = 0;
+    }
+
+    private static class Piece {
+        private final boolean mAdded;
+        private final int mStart;
+        private int mLength;
+
+        private Piece(boolean added, int start, int length) {
+            mAdded = added;
+            mStart = start;
+            mLength = length;
+        }
+    }
+}
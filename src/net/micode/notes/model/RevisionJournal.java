@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.model;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.RevisionColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Journal of the saved revisions of the text of a note. A save stores the range of the text
+ * changed since the save before, every {@link #CHECKPOINT_INTERVAL} revisions or when the
+ * journal does not end with the stored text the whole text is stored as a checkpoint. The
+ * journal keeps about {@link #MAX_REVISIONS} revisions of a note, the older ones are deleted
+ * along with a new checkpoint. While a note is edited its text data is only written with the
+ * checkpoints and when the note is closed, so the journal may end with a text newer than the
+ * text data, which is taken back by {@link #load}.
+ */
+public class RevisionJournal {
+    private static final String TAG = "RevisionJournal";
+
+    /**
+     * Largest count of changes stored after a checkpoint
+     */
+    private static final int CHECKPOINT_INTERVAL = 16;
+
+    /**
+     * Count of revisions kept, the revisions back to the checkpoint of the oldest one are
+     * kept too
+     */
+    private static final int MAX_REVISIONS = 64;
+
+    private static final String[] HEAD_PROJECTION = new String[] {
+        RevisionColumns.DEPTH,
+        RevisionColumns.CONTENT_HASH,
+        RevisionColumns.ID
+    };
+
+    private static final String[] ID_PROJECTION = new String[] {
+        RevisionColumns.ID
+    };
+
+    private static final String[] ENTRY_PROJECTION = new String[] {
+        RevisionColumns.ID,
+        RevisionColumns.CREATED_DATE
+    };
+
+    private static final String[] REPLAY_PROJECTION = new String[] {
+        RevisionColumns.DEPTH,
+        RevisionColumns.START,
+        RevisionColumns.DELETE_LENGTH,
+        RevisionColumns.TEXT
+    };
+
+    private static final String NOTE_SELECTION = RevisionColumns.NOTE_ID + "=?";
+
+    private static final String CONTENT_HASH_SELECTION = RevisionColumns.NOTE_ID + "=? AND "
+            + RevisionColumns.CONTENT_HASH + "=?";
+
+    /**
+     * The revisions from the latest checkpoint up to a revision
+     */
+    private static final String REPLAY_SELECTION = RevisionColumns.NOTE_ID + "=? AND "
+            + RevisionColumns.ID + "<=? AND " + RevisionColumns.ID + ">=(SELECT MAX("
+            + RevisionColumns.ID + ") FROM " + TABLE.REVISION
+            + " WHERE " + RevisionColumns.NOTE_ID + "=? AND " + RevisionColumns.DEPTH + "=0"
+            + " AND " + RevisionColumns.ID + "<=?)";
+
+    /**
+     * The revisions before the checkpoint of the oldest kept revision, none while fewer
+     * revisions are stored
+     */
+    private static final String COMPACT_SELECTION = RevisionColumns.NOTE_ID + "=? AND "
+            + RevisionColumns.ID + "<(SELECT MAX(" + RevisionColumns.ID + ")"
+            + " FROM " + TABLE.REVISION
+            + " WHERE " + RevisionColumns.NOTE_ID + "=? AND " + RevisionColumns.DEPTH + "=0"
+            + " AND " + RevisionColumns.ID + "<=(SELECT " + RevisionColumns.ID
+            + " FROM " + TABLE.REVISION + " WHERE " + RevisionColumns.NOTE_ID + "=? ORDER BY "
+            + RevisionColumns.ID + " DESC LIMIT 1 OFFSET " + (MAX_REVISIONS - 1) + "))";
+
+    /**
+     * Whether the latest stored revision is the text the next change applies to
+     */
+    private boolean mValid;
+
+    /**
+     * Depth of the latest stored revision
+     */
+    private int mDepth;
+
+    /**
+     * The change not stored yet
+     */
+    private Change mPending;
+
+    /**
+     * Text of the latest revision when it is newer than the text data, null otherwise
+     */
+    private String mUnwrittenText;
+
+    /**
+     * A journal without revision, for a new note
+     */
+    public RevisionJournal() {
+    }
+
+    /**
+     * Load the head of the journal of the note, the journal is only continued if it ends with
+     * the stored text, or with a text saved after it which is then given by
+     * {@link #takeUnwrittenText}
+     */
+    public static RevisionJournal load(Context context, long noteId, long contentHash) {
+        RevisionJournal journal = new RevisionJournal();
+        Cursor cursor = context.getContentResolver().query(Notes.CONTENT_REVISION_URI,
+                HEAD_PROJECTION, NOTE_SELECTION, new String[] {
+                    String.valueOf(noteId)
+                }, RevisionColumns.ID + " DESC");
+        if (cursor == null) {
+            Log.e(TAG, "Query revisions failed with note id:" + noteId);
+            return journal;
+        }
+        int depth;
+        long headHash;
+        long headId;
+        try {
+            if (!cursor.moveToFirst()) {
+                return journal;
+            }
+            depth = cursor.getInt(0);
+            headHash = cursor.getLong(1);
+            headId = cursor.getLong(2);
+        } finally {
+            cursor.close();
+        }
+
+        if (headHash != contentHash) {
+            // the text data is older than the journal if it is one of the revisions, else it
+            // has been written by someone else and the journal does not lead to it
+            if (!hasRevision(context, noteId, contentHash)) {
+                return journal;
+            }
+            journal.mUnwrittenText = loadText(context, noteId, headId);
+            if (journal.mUnwrittenText == null) {
+                return journal;
+            }
+        }
+        journal.mValid = true;
+        journal.mDepth = depth;
+        return journal;
+    }
+
+    private static boolean hasRevision(Context context, long noteId, long contentHash) {
+        Cursor cursor = context.getContentResolver().query(Notes.CONTENT_REVISION_URI,
+                ID_PROJECTION, CONTENT_HASH_SELECTION, new String[] {
+                    String.valueOf(noteId), String.valueOf(contentHash)
+                }, null);
+        if (cursor == null) {
+            Log.e(TAG, "Query revisions failed with note id:" + noteId);
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the text the loaded journal ends with if it is newer than the text data, once
+     */
+    public synchronized String takeUnwrittenText() {
+        String text = mUnwrittenText;
+        mUnwrittenText = null;
+        return text;
+    }
+
+    /**
+     * Record the change of the text since the latest revision, merged with the change which
+     * is not stored yet. Called on the UI thread.
+     * @param content the changed text
+     * @param head the count of characters at the head not changed
+     * @param tail the count of characters at the tail not changed
+     * @param baseLength the length of the text before the change
+     */
+    public synchronized void addChange(String content, long contentHash, int head, int tail,
+            int baseLength) {
+        if (mPending != null) {
+            // the pending change applies to the stored text, the new one to its result
+            head = Math.min(head, mPending.mHead);
+            tail = Math.min(tail, mPending.mTail);
+            baseLength = mPending.mBaseLength;
+        }
+        mPending = new Change(content, contentHash, head, tail, baseLength);
+    }
+
+    /**
+     * @return true if there is a change to store
+     */
+    synchronized boolean hasPendingChange() {
+        return mPending != null;
+    }
+
+    /**
+     * Called when a taken revision could not be stored, the next one is a checkpoint
+     */
+    public synchronized void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Take the pending change as the values of the revision to store
+     * @return the values, or null if there is no change
+     */
+    synchronized ContentValues takeRevision() {
+        Change change = mPending;
+        if (change == null) {
+            return null;
+        }
+        mPending = null;
+
+        String content = change.mContent;
+        int end = content.length() - change.mTail;
+        int depth = mValid && mDepth + 1 < CHECKPOINT_INTERVAL
+                // a change of most of the text is stored whole
+                && (end - change.mHead) * 2 < content.length() ? mDepth + 1 : 0;
+        ContentValues values = new ContentValues();
+        values.put(RevisionColumns.CREATED_DATE, System.currentTimeMillis());
+        values.put(RevisionColumns.DEPTH, depth);
+        values.put(RevisionColumns.CONTENT_HASH, change.mContentHash);
+        if (depth == 0) {
+            values.put(RevisionColumns.TEXT, content);
+        } else {
+            values.put(RevisionColumns.START, change.mHead);
+            values.put(RevisionColumns.DELETE_LENGTH,
+                    change.mBaseLength - change.mHead - change.mTail);
+            values.put(RevisionColumns.TEXT, content.substring(change.mHead, end));
+        }
+        mValid = true;
+        mDepth = depth;
+        return values;
+    }
+
+    /**
+     * Add the operations storing the revision, a checkpoint deletes the revisions which are
+     * no longer kept
+     * @param noteId the id of the note, or 0 for the note inserted by the first operation
+     */
+    static void addOperations(ContentValues values, long noteId,
+            ArrayList<ContentProviderOperation> operationList) {
+        ContentProviderOperation.Builder builder = ContentProviderOperation
+                .newInsert(Notes.CONTENT_REVISION_URI);
+        if (noteId > 0) {
+            values.put(RevisionColumns.NOTE_ID, noteId);
+            builder.withValues(values);
+        } else {
+            builder.withValues(values).withValueBackReference(RevisionColumns.NOTE_ID, 0);
+        }
+        operationList.add(builder.build());
+
+        if (noteId > 0 && values.getAsInteger(RevisionColumns.DEPTH) == 0) {
+            String id = String.valueOf(noteId);
+            operationList.add(ContentProviderOperation.newDelete(Notes.CONTENT_REVISION_URI)
+                    .withSelection(COMPACT_SELECTION, new String[] {
+                        id, id, id
+                    }).build());
+        }
+    }
+
+    /**
+     * @return the stored revisions of the note, the latest first
+     */
+    public static List<Entry> getEntries(Context context, long noteId) {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        Cursor cursor = context.getContentResolver().query(Notes.CONTENT_REVISION_URI,
+                ENTRY_PROJECTION, NOTE_SELECTION, new String[] {
+                    String.valueOf(noteId)
+                }, RevisionColumns.ID + " DESC");
+        if (cursor == null) {
+            Log.e(TAG, "Query revisions failed with note id:" + noteId);
+            return entries;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                entries.add(new Entry(cursor.getLong(0), cursor.getLong(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Build the text of the revision from its checkpoint and the changes after it
+     * @return the text, or null if the revision can not be built
+     */
+    public static String loadText(Context context, long noteId, long revisionId) {
+        String note = String.valueOf(noteId);
+        String revision = String.valueOf(revisionId);
+        Cursor cursor = context.getContentResolver().query(Notes.CONTENT_REVISION_URI,
+                REPLAY_PROJECTION, REPLAY_SELECTION, new String[] {
+                    note, revision, note, revision
+                }, RevisionColumns.ID);
+        if (cursor == null) {
+            Log.e(TAG, "Query revision failed with id:" + revisionId);
+            return null;
+        }
+        try {
+            StringBuilder sb = null;
+            while (cursor.moveToNext()) {
+                if (cursor.getInt(0) == 0) {
+                    sb = new StringBuilder(cursor.getString(3));
+                    continue;
+                }
+                int start = cursor.getInt(1);
+                int end = start + cursor.getInt(2);
+                if (sb == null || end > sb.length()) {
+                    Log.e(TAG, "Revision " + revisionId + " does not follow its checkpoint");
+                    return null;
+                }
+                sb.replace(start, end, cursor.getString(3));
+            }
+            return sb != null ? sb.toString() : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * A stored revision
+     */
+    public static class Entry {
+        private final long mId;
+        private final long mCreatedDate;
+
+        private Entry(long id, long createdDate) {
+            mId = id;
+            mCreatedDate = createdDate;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public long getCreatedDate() {
+            return mCreatedDate;
+        }
+    }
+
+    private static class Change {
+        private final String mContent;
+        private final long mContentHash;
+        private final int mHead;
+        private final int mTail;
+        private final int mBaseLength;
+
+        private Change(String content, long contentHash, int head, int tail, int baseLength) {
+            mContent = content;
+            mContentHash = contentHash;
+            mHead = head;
+            mTail = tail;
+            mBaseLength = baseLength;
+        }
+    }
+}
@@ -17,28 +17,39 @@
 package net.micode.notes.model;
 
 import android.appwidget.AppWidgetManager;
-import android.content.ContentUris;
 import android.content.Context;
-import android.database.Cursor;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.CallNote;
 import net.micode.notes.data.Notes.DataColumns;
-import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.tool.CheckListUtils;
 import net.micode.notes.tool.ResourceParser.NoteBgResources;
+import net.micode.notes.widget.NoteWidgetProvider_2x;
+import net.micode.notes.widget.NoteWidgetProvider_4x;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 public class WorkingNote {
     // Note for the working note
     private Note mNote;
-    // Note Id
-    private long mNoteId;
-    // Note content
-    private String mContent;
+    // Note Id, set by the save queue for a new note
+    private volatile long mNoteId;
+    // Note content, edited in place by the editor
+    private final PieceTable mContent = new PieceTable(null);
     // Note mode模式
     private int mMode;
     //提醒时间
@@ -58,48 +69,67 @@ public class WorkingNote {
 
     private static final String TAG = "WorkingNote";
       //是否删除
-    private boolean mIsDeleted;
-
-    private NoteSettingChangedListener mNoteSettingStatusListener;
-
-    public static final String[] DATA_PROJECTION = new String[] {
-            DataColumns.ID,
-            DataColumns.CONTENT,
-            DataColumns.MIME_TYPE,
-            DataColumns.DATA1,
-            DataColumns.DATA2,
-            DataColumns.DATA3,
-            DataColumns.DATA4,
-    };
-
-    public static final String[] NOTE_PROJECTION = new String[] {
-            NoteColumns.PARENT_ID,
-            NoteColumns.ALERTED_DATE,
-            NoteColumns.BG_COLOR_ID,
-            NoteColumns.WIDGET_ID,
-            NoteColumns.WIDGET_TYPE,
-            NoteColumns.MODIFIED_DATE
+    private volatile boolean mIsDeleted;
+
+    /**
+     * Hash of the content written last, or loaded
+     */
+    private long mSavedContentHash;
+
+    /**
+     * Mode of the content written last, or loaded, {@link #MODE_NOT_SAVED} after a write failed
+     */
+    private int mSavedMode;
+
+    /**
+     * Saved mode which differs from any mode, so the content is written again by the next save
+     */
+    private static final int MODE_NOT_SAVED = -1;
+
+    private final Runnable mWriteFailedRunnable = new Runnable() {
+        public void run() {
+            mSavedMode = MODE_NOT_SAVED;
+        }
     };
 
-    private static final int DATA_ID_COLUMN = 0;
+    /**
+     * Whether the saved content is only stored in the journal, the text data is written when
+     * the note is closed or the journal takes a checkpoint
+     */
+    private boolean mContentUnwritten;
 
-    private static final int DATA_CONTENT_COLUMN = 1;
+    /**
+     * Mod count of the content when it was hashed last, it is not hashed again until edited
+     */
+    private int mHashedModCount;
 
-    private static final int DATA_MIME_TYPE_COLUMN = 2;
+    /**
+     * Journal the saved changes of the content are appended to
+     */
+    private RevisionJournal mRevisionJournal;
 
-    private static final int DATA_MODE_COLUMN = 3;
+    private Future<Boolean> mLastSave;
 
-    private static final int NOTE_PARENT_ID_COLUMN = 0;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
 
-    private static final int NOTE_ALERTED_DATE_COLUMN = 1;
-
-    private static final int NOTE_BG_COLOR_ID_COLUMN = 2;
+    private final Runnable mSaveRunnable = new Runnable() {
+        public void run() {
+            submitSave(false);
+        }
+    };
 
-    private static final int NOTE_WIDGET_ID_COLUMN = 3;
+    /**
+     * Delay of {@link #requestSave}, the requests within it are written once
+     */
+    private static final long SAVE_DELAY_MILLIS = 500;
 
-    private static final int NOTE_WIDGET_TYPE_COLUMN = 4;
+    /**
+     * Writes the notes one at a time, so the writes of a note keep their order and a new note
+     * is inserted only once
+     */
+    private static final ExecutorService sSaveExecutor = Executors.newSingleThreadExecutor();
 
-    private static final int NOTE_MODIFIED_DATE_COLUMN = 5;
+    private NoteSettingChangedListener mNoteSettingStatusListener;
 
     // New note construct新便签定义变量
     private WorkingNote(Context context, long folderId) {
@@ -112,6 +142,9 @@ public class WorkingNote {
         mIsDeleted = false;
         mMode = 0;
         mWidgetType = Notes.TYPE_WIDGET_INVALIDE;//重置内容
+        mSavedContentHash = contentHash(null);
+        mRevisionJournal = new RevisionJournal();
+        mNote.setRevisionJournal(mRevisionJournal);
     }
 
     // Existing note construct已存在便签创建，即把已存在内容导入
@@ -125,52 +158,43 @@ public class WorkingNote {
     }
      //获取提供信息者（mNoteId）的相应所有信息给变量mFolderId， mBgColorId等，一个查找函数
     private void loadNote() {
-        Cursor cursor = mContext.getContentResolver().query(//以下括号内的为信息的提供者，即信息提供者为mNoteID
-                ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mNoteId), NOTE_PROJECTION, null,
-                null, null);
-
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                mFolderId = cursor.getLong(NOTE_PARENT_ID_COLUMN);
-                mBgColorId = cursor.getInt(NOTE_BG_COLOR_ID_COLUMN);
-                mWidgetId = cursor.getInt(NOTE_WIDGET_ID_COLUMN);
-                mWidgetType = cursor.getInt(NOTE_WIDGET_TYPE_COLUMN);
-                mAlertDate = cursor.getLong(NOTE_ALERTED_DATE_COLUMN);
-                mModifiedDate = cursor.getLong(NOTE_MODIFIED_DATE_COLUMN);
-            }
-            cursor.close();
-        } else {
-            Log.e(TAG, "No note with id:" + mNoteId);//否则输出该ID无便签
-            throw new IllegalArgumentException("Unable to find note with id " + mNoteId);
-        }//输出找不到该id的便签
+        // served from the shared repository when the note has been opened or prefetched
+        NoteRepository.NoteHeader header = NoteRepository.getInstance(mContext).getHeader(mNoteId);
+        if (header != null) {
+            mFolderId = header.getParentId();
+            mBgColorId = header.getBgColorId();
+            mWidgetId = header.getWidgetId();
+            mWidgetType = header.getWidgetType();
+            mAlertDate = header.getAlertDate();
+            mModifiedDate = header.getModifiedDate();
+        }
         loadNoteData();
     }
 
     private void loadNoteData() {//该函数实现某个id根据关键词句来查询相应便签
-        Cursor cursor = mContext.getContentResolver().query(Notes.CONTENT_DATA_URI, DATA_PROJECTION,
-                DataColumns.NOTE_ID + "=?", new String[] {
-                    String.valueOf(mNoteId)
-                }, null);
-
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                do {
-                    String type = cursor.getString(DATA_MIME_TYPE_COLUMN);
-                    if (DataConstants.NOTE.equals(type)) {
-                        mContent = cursor.getString(DATA_CONTENT_COLUMN);
-                        mMode = cursor.getInt(DATA_MODE_COLUMN);
-                        mNote.setTextDataId(cursor.getLong(DATA_ID_COLUMN));
-                    } else if (DataConstants.CALL_NOTE.equals(type)) {
-                        mNote.setCallDataId(cursor.getLong(DATA_ID_COLUMN));
-                    } else {
-                        Log.d(TAG, "Wrong note type with type:" + type);
-                    }
-                } while (cursor.moveToNext());
-            }
-            cursor.close();
-        } else {
-            Log.e(TAG, "No data with id:" + mNoteId);
-            throw new IllegalArgumentException("Unable to find note's data with id " + mNoteId);
+        NoteRepository.NoteBody body = NoteRepository.getInstance(mContext).getBody(mNoteId);
+        if (body.getTextDataId() > 0) {
+            mContent.reset(body.getContent());
+            mMode = body.getMode();
+            mNote.setTextDataId(body.getTextDataId());
+        }
+        mNote.setCheckListRows(body.getCheckListRows(),
+                body.isCheckListHead() || TextUtils.isEmpty(body.getContent()));
+        mSavedContentHash = contentHash(mContent);
+        mSavedMode = mMode;
+        mHashedModCount = mContent.getModCount();
+        mRevisionJournal = RevisionJournal.load(mContext, mNoteId, mSavedContentHash);
+        mNote.setRevisionJournal(mRevisionJournal);
+        String unwrittenText = mRevisionJournal.takeUnwrittenText();
+        if (unwrittenText != null && mMode != TextNote.MODE_CHECK_LIST) {
+            // saved after the text data was written last, the note was not closed since
+            mContent.reset(unwrittenText);
+            mSavedContentHash = contentHash(mContent);
+            mHashedModCount = mContent.getModCount();
+            mContentUnwritten = true;
+        }
+        if (body.getCallDataId() > 0) {
+            mNote.setCallDataId(body.getCallDataId());
         }
     }
 
@@ -187,29 +211,209 @@ public class WorkingNote {
         return new WorkingNote(context, id, 0);
     }
 
-    public synchronized boolean saveNote() {//如果保存便签的内容修改后的具体保存操作
-        if (isWorthSaving()) {
-            if (!existInDatabase()) {
-                if ((mNoteId = Note.getNewNoteId(mContext, mFolderId)) == 0) {
-                    Log.e(TAG, "Create new note fail with id:" + mNoteId);
+    /**
+     * Save the note and wait until it is written
+     * @return true if the note had changes and they were written
+     */
+    public boolean saveNote() {//如果保存便签的内容修改后的具体保存操作
+        Future<Boolean> save = submitSave(true);
+        if (save == null) {
+            return false;
+        }
+        Boolean saved = waitForSave(save, -1);
+        return saved != null && saved;
+    }
+
+    /**
+     * Save the note after {@link #SAVE_DELAY_MILLIS}, the requests made meanwhile are written
+     * once. Called on the UI thread.
+     * @return true if the note has changes to write
+     */
+    public boolean requestSave() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        if (!prepareSave(false)) {
+            return false;
+        }
+        mHandler.postDelayed(mSaveRunnable, SAVE_DELAY_MILLIS);
+        return true;
+    }
+
+    /**
+     * Write the changes right away and wait for them at most the given time, the write goes
+     * on in background when it takes longer. Called on the UI thread.
+     * @return true if the note had changes to write
+     */
+    public boolean flushSave(long timeoutMillis) {
+        Future<Boolean> save = submitSave(true);
+        if (save != null) {
+            waitForSave(save, timeoutMillis);
+        } else if (mLastSave != null && !mLastSave.isDone()) {
+            // the write of a former request is still running
+            waitForSave(mLastSave, timeoutMillis);
+        }
+        return save != null;
+    }
+
+    /**
+     * Hand the changes of the note to the save queue
+     * @param flush true to write the text data too, otherwise only the change of the text is
+     *        stored in the journal
+     * @return the pending write, or null if there is nothing worth saving
+     */
+    private Future<Boolean> submitSave(boolean flush) {
+        mHandler.removeCallbacks(mSaveRunnable);
+        if (!prepareSave(flush)) {
+            return null;
+        }
+        /**
+         * Update widget content if there exist any widget of this note, the widget is taken
+         * now since the editor may have moved to another note once the write is done
+         */
+        final int widgetId = mWidgetId;
+        final int widgetType = mWidgetType;
+        mLastSave = sSaveExecutor.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                return writeNote(widgetId, widgetType);
+            }
+        });
+        return mLastSave;
+    }
+
+    /**
+     * Move the edited content into the pending changes unless it is what was written last.
+     * The text of a note in text mode is only stored as a change in the journal, the text
+     * data is written once the note is closed.
+     * @param flush true to write the text data if it is not written yet
+     * @return true if the note is worth saving
+     */
+    private boolean prepareSave(boolean flush) {
+        long contentHash = mSavedContentHash;
+        if (mContent.getModCount() != mHashedModCount) {
+            contentHash = contentHash(mContent);
+            mHashedModCount = mContent.getModCount();
+        }
+        if (contentHash != mSavedContentHash || mMode != mSavedMode
+                || (flush && mContentUnwritten)) {
+            // built once and shared by the table and the pending changes
+            String content = mContent.toString();
+            if (contentHash != mSavedContentHash) {
+                mRevisionJournal.addChange(content, contentHash, mContent.getUnchangedHead(),
+                        mContent.getUnchangedTail(), mContent.getRevisionLength());
+                mContent.markRevision();
+            }
+            if (mMode == TextNote.MODE_CHECK_LIST) {
+                // each item has a row, so only the changed items are written
+                mNote.setCheckListItems(CheckListUtils.parse(content));
+            } else if (flush || mMode != mSavedMode || !existInDatabase()) {
+                mNote.setTextData(DataColumns.CONTENT, content);
+                mNote.clearCheckList();
+                mContentUnwritten = false;
+            } else {
+                // the journal keeps the change, a checkpoint writes the text data with it
+                mNote.deferTextContent();
+                mContentUnwritten = true;
+            }
+            mSavedContentHash = contentHash;
+            mSavedMode = mMode;
+        }
+        return isWorthSaving();
+    }
+
+    /**
+     * Runs on the save queue, which writes one note at a time in the order of the requests
+     */
+    private boolean writeNote(int widgetId, int widgetType) {
+        if (mIsDeleted) {
+            return false;
+        }
+        try {
+            if (existInDatabase()) {
+                if (!mNote.syncNote(mContext, mNoteId)) {
+                    Log.e(TAG, "Update note fail with id:" + mNoteId);
+                    onWriteFailed();
                     return false;
                 }
+            } else {
+                // the note and its data rows are inserted together
+                long noteId = mNote.insertNote(mContext, mFolderId);
+                if (noteId == 0) {
+                    Log.e(TAG, "Create new note fail with id:" + noteId);
+                    onWriteFailed();
+                    return false;
+                }
+                mNoteId = noteId;
             }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Save note failed with id:" + mNoteId, e);
+            onWriteFailed();
+            return false;
+        }
+        // the change notification is delayed, do not open the old rows meanwhile
+        NoteRepository.getInstance(mContext).invalidate(mNoteId);
 
-            mNote.syncNote(mContext, mNoteId);
+        if (widgetId != AppWidgetManager.INVALID_APPWIDGET_ID
+                && widgetType != Notes.TYPE_WIDGET_INVALIDE) {
+            updateWidget(widgetId, widgetType);
+        }
+        return true;
+    }
 
-            /**
-             * Update widget content if there exist any widget of this note
-             */
-            if (mWidgetId != AppWidgetManager.INVALID_APPWIDGET_ID
-                    && mWidgetType != Notes.TYPE_WIDGET_INVALIDE
-                    && mNoteSettingStatusListener != null) {
-                mNoteSettingStatusListener.onWidgetChanged();
-            }
-            return true;
+    private void updateWidget(int widgetId, int widgetType) {
+        Intent intent = new Intent(AppWidgetManager.ACTION_APPWIDGET_UPDATE);
+        if (widgetType == Notes.TYPE_WIDGET_2X) {
+            intent.setClass(mContext, NoteWidgetProvider_2x.class);
+        } else if (widgetType == Notes.TYPE_WIDGET_4X) {
+            intent.setClass(mContext, NoteWidgetProvider_4x.class);
         } else {
-            return false;
+            Log.e(TAG, "Unspported widget type");
+            return;
         }
+
+        intent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, new int[] {
+            widgetId
+        });
+        mContext.sendBroadcast(intent);
+    }
+
+    /**
+     * The content is not persisted, so it is written again by the next save even if it is not
+     * edited, and the revision may be lost with it so the next one is stored whole
+     */
+    private void onWriteFailed() {
+        mRevisionJournal.invalidate();
+        mHandler.post(mWriteFailedRunnable);
+    }
+
+    /**
+     * @param timeoutMillis the longest time to wait, or a negative value to wait until done
+     * @return the result of the write, or null if it has not finished
+     */
+    private static Boolean waitForSave(Future<Boolean> save, long timeoutMillis) {
+        try {
+            return timeoutMillis < 0 ? save.get() : save.get(timeoutMillis,
+                    TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Note not saved in " + timeoutMillis + "ms, left in background");
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Save note failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the content, an empty and a null content hash the same
+     */
+    private static long contentHash(CharSequence content) {
+        long hash = 0xcbf29ce484222325L;
+        if (content != null) {
+            for (int i = 0; i < content.length(); i++) {
+                hash ^= content.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash;
     }
 
     public boolean existInDatabase() {//判断id是否存在
@@ -217,7 +421,7 @@ public class WorkingNote {
     }
 
     private boolean isWorthSaving() {//该id是否保存便签修改
-        if (mIsDeleted || (!existInDatabase() && TextUtils.isEmpty(mContent))
+        if (mIsDeleted || (!existInDatabase() && mContent.length() == 0)
                 || (existInDatabase() && !mNote.isLocalModified())) {
             return false;
         } else {
@@ -282,10 +486,16 @@ public class WorkingNote {
     }
 
     public void setWorkingText(String text) {//设置文本框
-        if (!TextUtils.equals(mContent, text)) {
-            mContent = text;
-            mNote.setTextData(DataColumns.CONTENT, mContent);
-        }
+        // taken into the changes when saved, unless it is back to what was written last
+        mContent.replaceAll(text);
+    }
+
+    /**
+     * Replace the range of the content between start and end with the range of the text
+     * between textStart and textEnd, called for every change of the editor
+     */
+    public void replaceText(int start, int end, CharSequence text, int textStart, int textEnd) {
+        mContent.replace(start, end, text, textStart, textEnd);
     }
 
     public void convertToCallNote(String phoneNumber, long callDate) {
@@ -299,6 +509,13 @@ public class WorkingNote {
     }
 
     public String getContent() {
+        return mContent.toString();
+    }
+
+    /**
+     * @return the content without building it into a string
+     */
+    public CharSequence getDocument() {
         return mContent;
     }
 
@@ -25,9 +25,11 @@ import android.util.Log;
 
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.CheckListItem;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.TextNote;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -118,6 +120,10 @@ public class BackupUtils {//备份工具类
 
         private static final int DATA_COLUMN_CALL_DATE = 2;
 
+        private static final int DATA_COLUMN_MODE = 2;
+
+        private static final int DATA_COLUMN_CHECKED = 2;
+
         private static final int DATA_COLUMN_PHONE_NUMBER = 4;
 
         private final String [] TEXT_FORMAT;
@@ -175,12 +181,15 @@ public class BackupUtils {//备份工具类
          * 搜索note的id，输出note内容到打印流
          */
         private void exportNoteToText(String noteId, PrintStream ps) {
+            // the check list items come in the order of their positions
             Cursor dataCursor = mContext.getContentResolver().query(Notes.CONTENT_DATA_URI,
                     DATA_PROJECTION, DataColumns.NOTE_ID + "=?", new String[] {
                         noteId
-                    }, null);
+                    }, CheckListItem.POSITION + "," + DataColumns.ID);
 
-            if (dataCursor != null) {//利用光标来扫描内容，区别为callnote和note两种，靠ps.printline输出
+            if (dataCursor != null) {
+                boolean checkListHead = false;
+                StringBuilder checkList = new StringBuilder();//利用光标来扫描内容，区别为callnote和note两种，靠ps.printline输出
                 if (dataCursor.moveToFirst()) {
                     do {
                         String mimeType = dataCursor.getString(DATA_COLUMN_MIME_TYPE);//文件的媒体类型。浏览器可以根据它来区分文件，然后决定什么内容用什么形式来显示。
@@ -208,11 +217,23 @@ public class BackupUtils {//备份工具类
                             if (!TextUtils.isEmpty(content)) {
                                 ps.println(String.format(getFormat(FORMAT_NOTE_CONTENT),
                                         content));
+                            } else if (dataCursor.getInt(DATA_COLUMN_MODE)
+                                    == TextNote.MODE_CHECK_LIST) {
+                                checkListHead = true;
                             }
+                        } else if (DataConstants.CHECK_LIST_ITEM.equals(mimeType)) {
+                            // exported as the tagged lines the check list was written as
+                            CheckListUtils.appendItem(checkList,
+                                    dataCursor.getString(DATA_COLUMN_CONTENT),
+                                    dataCursor.getInt(DATA_COLUMN_CHECKED) != 0);
                         }
                     } while (dataCursor.moveToNext());
                 }
                 dataCursor.close();
+                if (checkListHead && checkList.length() > 0) {
+                    ps.println(String.format(getFormat(FORMAT_NOTE_CONTENT),
+                            checkList.toString()));
+                }
             }
             // print a line separator between note
             //在note之间打印行分离器
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts the items of a check list from and to its text, in which every item is a line
+ * starting with the tag of its checked state
+ */
+public class CheckListUtils {
+    public static final String TAG_CHECKED = String.valueOf('\u221A');
+
+    public static final String TAG_UNCHECKED = String.valueOf('\u25A1');
+
+    /**
+     * Distance between the positions of the items when they are numbered, so an item can
+     * be inserted without moving the others
+     */
+    public static final long POSITION_GAP = 1024;
+
+    /**
+     * Parse the lines of the text, the empty lines are left out and a line without tag is
+     * an unchecked item
+     */
+    public static ArrayList<Item> parse(String text) {
+        ArrayList<Item> items = new ArrayList<Item>();
+        if (TextUtils.isEmpty(text)) {
+            return items;
+        }
+        for (String line : text.split("\n")) {
+            if (TextUtils.isEmpty(line)) {
+                continue;
+            }
+            if (line.startsWith(TAG_CHECKED)) {
+                items.add(new Item(line.substring(TAG_CHECKED.length()).trim(), true));
+            } else if (line.startsWith(TAG_UNCHECKED)) {
+                items.add(new Item(line.substring(TAG_UNCHECKED.length()).trim(), false));
+            } else {
+                items.add(new Item(line, false));
+            }
+        }
+        return items;
+    }
+
+    /**
+     * @return the text of the items, the same as written by the note editor
+     */
+    public static String format(List<Item> items) {
+        StringBuilder sb = new StringBuilder();
+        for (Item item : items) {
+            appendItem(sb, item.getText(), item.isChecked());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Append the line of an item, empty items are left out
+     */
+    public static void appendItem(StringBuilder sb, String text, boolean checked) {
+        if (TextUtils.isEmpty(text)) {
+            return;
+        }
+        sb.append(checked ? TAG_CHECKED : TAG_UNCHECKED).append(" ").append(text).append("\n");
+    }
+
+    /**
+     * @return the position of the item at the index when the items are numbered again
+     */
+    public static long positionOf(int index) {
+        return (index + 1) * POSITION_GAP;
+    }
+
+    public static class Item {
+        private final String mText;
+        private final boolean mChecked;
+
+        public Item(String text, boolean checked) {
+            mText = text != null ? text : "";
+            mChecked = checked;
+        }
+
+        public String getText() {
+            return mText;
+        }
+
+        public boolean isChecked() {
+            return mChecked;
+        }
+    }
+}
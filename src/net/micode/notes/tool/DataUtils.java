@@ -198,10 +198,20 @@ public class DataUtils {
     }
 
     public static HashSet<AppWidgetAttribute> getFolderNoteWidget(ContentResolver resolver, long folderId) {
+        return getNotesWidget(resolver, NoteColumns.PARENT_ID + "=?",
+                new String[] { String.valueOf(folderId) });
+    }
+
+    /**
+     * Get the widgets of the notes matched by the selection with one query
+     * @return the widgets, or null if no note matches
+     */
+    public static HashSet<AppWidgetAttribute> getNotesWidget(ContentResolver resolver,
+            String selection, String[] selectionArgs) {
         Cursor c = resolver.query(Notes.CONTENT_NOTE_URI,
                 new String[] { NoteColumns.WIDGET_ID, NoteColumns.WIDGET_TYPE },
-                NoteColumns.PARENT_ID + "=?",
-                new String[] { String.valueOf(folderId) },
+                selection,
+                selectionArgs,
                 null);
 
         HashSet<AppWidgetAttribute> set = null;
@@ -224,6 +234,26 @@ public class DataUtils {
         return set;
     }
 
+    /**
+     * Get the ids of the notes matched by the selection
+     */
+    public static HashSet<Long> getNoteIds(ContentResolver resolver, String selection,
+            String[] selectionArgs) {
+        HashSet<Long> ids = new HashSet<Long>();
+        Cursor c = resolver.query(Notes.CONTENT_NOTE_URI,
+                new String[] { NoteColumns.ID },
+                selection,
+                selectionArgs,
+                null);
+        if (c != null) {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+            c.close();
+        }
+        return ids;
+    }
+
     public static String getCallNumberByNoteId(ContentResolver resolver, long noteId) {
         Cursor cursor = resolver.query(Notes.CONTENT_DATA_URI,
                 new String [] { CallNote.PHONE_NUMBER },
@@ -282,6 +312,18 @@ public class DataUtils {
         throw new IllegalArgumentException("Note is not found with id: " + noteId);
     }
 
+    /**
+     * Hold back the change notifications of notes provider, the changes are notified once
+     * {@link #resumeNotifications} is called
+     */
+    public static void suspendNotifications(ContentResolver resolver) {
+        resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_SUSPEND_NOTIFICATIONS, null, null);
+    }
+
+    public static void resumeNotifications(ContentResolver resolver) {
+        resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_RESUME_NOTIFICATIONS, null, null);
+    }
+
     public static String getFormattedSnippet(String snippet) {
         if (snippet != null) {
             snippet = snippet.trim();
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+/**
+ * A set of primitive longs, such as note ids, kept in an open addressing table so the
+ * values are never boxed
+ */
+public class LongHashSet {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mKeys;
+
+    private boolean[] mUsed;
+
+    private int mSize;
+
+    public LongHashSet() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public boolean contains(long key) {
+        return mUsed[indexOf(key)];
+    }
+
+    /**
+     * @return true if the key was not in the set
+     */
+    public boolean add(long key) {
+        int index = indexOf(key);
+        if (mUsed[index]) {
+            return false;
+        }
+        mKeys[index] = key;
+        mUsed[index] = true;
+        mSize++;
+        // keep the load factor under 3/4
+        if (mSize * 4 > mKeys.length * 3) {
+            rehash(mKeys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the key was in the set
+     */
+    public boolean remove(long key) {
+        int index = indexOf(key);
+        if (!mUsed[index]) {
+            return false;
+        }
+        mUsed[index] = false;
+        mSize--;
+
+        // move back the following keys of the probe sequence into the freed slot
+        int mask = mKeys.length - 1;
+        int next = (index + 1) & mask;
+        while (mUsed[next]) {
+            int home = hash(mKeys[next]) & mask;
+            if (((next - home) & mask) >= ((next - index) & mask)) {
+                mKeys[index] = mKeys[next];
+                mUsed[index] = true;
+                mUsed[next] = false;
+                index = next;
+            }
+            next = (next + 1) & mask;
+        }
+        return true;
+    }
+
+    public void clear() {
+        if (mSize == 0) {
+            return;
+        }
+        allocate(MIN_CAPACITY);
+    }
+
+    public long[] toArray() {
+        long[] values = new long[mSize];
+        int count = 0;
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mUsed[i]) {
+                values[count++] = mKeys[i];
+            }
+        }
+        return values;
+    }
+
+    private int indexOf(long key) {
+        int mask = mKeys.length - 1;
+        int index = hash(key) & mask;
+        while (mUsed[index] && mKeys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        boolean[] used = mUsed;
+        allocate(capacity);
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                int index = indexOf(keys[i]);
+                mKeys[index] = keys[i];
+                mUsed[index] = true;
+                mSize++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mUsed = new boolean[capacity];
+        mSize = 0;
+    }
+
+    private static int hash(long key) {
+        int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -35,7 +35,8 @@ import android.view.WindowManager;
 
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
-import net.micode.notes.tool.DataUtils;
+import net.micode.notes.model.NoteRepository;
+import net.micode.notes.model.NoteRepository.NoteHeader;
 
 import java.io.IOException;
 
@@ -65,7 +66,8 @@ public class AlarmAlertActivity extends Activity implements OnClickListener, OnD
 
         try {
             mNoteId = Long.valueOf(intent.getData().getPathSegments().get(1));
-            mSnippet = DataUtils.getSnippetById(this.getContentResolver(), mNoteId);
+            NoteHeader header = NoteRepository.getInstance(this).getHeader(mNoteId);
+            mSnippet = header != null ? header.getSnippet() : "";
             mSnippet = mSnippet.length() > SNIPPET_PREW_MAX_LEN ? mSnippet.substring(0,
                     SNIPPET_PREW_MAX_LEN) + getResources().getString(R.string.notelist_string_info)
                     : mSnippet;
@@ -75,7 +77,7 @@ public class AlarmAlertActivity extends Activity implements OnClickListener, OnD
         }
 
         mPlayer = new MediaPlayer();
-        if (DataUtils.visibleInNoteDatabase(getContentResolver(), mNoteId, Notes.TYPE_NOTE)) {
+        if (NoteRepository.getInstance(this).isVisible(mNoteId, Notes.TYPE_NOTE)) {
             showActionDialog();
             playAlarmSound();
         } else {
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.ui;
+
+import android.content.Context;
+import android.graphics.Paint;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.CompoundButton.OnCheckedChangeListener;
+
+import net.micode.notes.R;
+import net.micode.notes.tool.CheckListUtils;
+import net.micode.notes.ui.NoteEditText.OnTextViewChangeListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows the items of a check list note in recycled rows. The items are kept in a model which
+ * the rows write back to, so adding or removing an item only binds the visible rows again and
+ * the note text is built from the model instead of the views.
+ */
+public class CheckListAdapter extends BaseAdapter {
+    private final Context mContext;
+
+    private final OnTextViewChangeListener mTextViewChangeListener;
+
+    private final ArrayList<Item> mItems;
+
+    private QueryHighlighter mQueryHighlighter;
+
+    private int mTextAppearanceResId;
+
+    /**
+     * The position to focus once its row is bound, or -1
+     */
+    private int mFocusPosition;
+
+    private int mFocusSelection;
+
+    public CheckListAdapter(Context context, OnTextViewChangeListener listener) {
+        mContext = context;
+        mTextViewChangeListener = listener;
+        mItems = new ArrayList<Item>();
+        mFocusPosition = -1;
+    }
+
+    /**
+     * Parse the lines of the note text, the empty lines are left out and an empty item is
+     * added at the end to type into
+     */
+    public void setText(String text, QueryHighlighter highlighter) {
+        mItems.clear();
+        mQueryHighlighter = highlighter;
+        for (CheckListUtils.Item item : CheckListUtils.parse(text)) {
+            mItems.add(new Item(item.getText(), item.isChecked()));
+        }
+        mItems.add(new Item("", false));
+        requestFocus(mItems.size() - 1, 0);
+    }
+
+    public List<Item> getItems() {
+        return mItems;
+    }
+
+    public void setTextAppearance(int resId) {
+        if (mTextAppearanceResId != resId) {
+            mTextAppearanceResId = resId;
+            notifyDataSetChanged();
+        }
+    }
+
+    public void insertItem(int position, String text) {
+        mItems.add(position, new Item(text, false));
+        requestFocus(position, 0);
+    }
+
+    /**
+     * Remove the item and append its text to the previous one
+     */
+    public void removeItem(int position) {
+        Item removed = mItems.remove(position);
+        int previous = Math.max(0, position - 1);
+        Item item = mItems.get(previous);
+        int length = item.mText.length();
+        item.mText = item.mText + removed.mText;
+        requestFocus(previous, length);
+    }
+
+    /**
+     * Focus the text of the position with the cursor at the selection once it is bound
+     */
+    public void requestFocus(int position, int selection) {
+        mFocusPosition = position;
+        mFocusSelection = selection;
+        notifyDataSetChanged();
+    }
+
+    public int getCount() {
+        return mItems.size();
+    }
+
+    public Object getItem(int position) {
+        return mItems.get(position);
+    }
+
+    public long getItemId(int position) {
+        return position;
+    }
+
+    public View getView(int position, View convertView, ViewGroup parent) {
+        ViewHolder holder;
+        if (convertView == null) {
+            convertView = LayoutInflater.from(mContext).inflate(R.layout.note_edit_list_item,
+                    parent, false);
+            holder = new ViewHolder(convertView);
+            convertView.setTag(holder);
+        } else {
+            holder = (ViewHolder) convertView.getTag();
+        }
+        holder.bind(position);
+        return convertView;
+    }
+
+    /**
+     * An item of the check list
+     */
+    public static class Item {
+        private String mText;
+        private boolean mChecked;
+
+        private Item(String text, boolean checked) {
+            mText = text;
+            mChecked = checked;
+        }
+
+        public String getText() {
+            return mText;
+        }
+
+        public boolean isChecked() {
+            return mChecked;
+        }
+    }
+
+    private class ViewHolder implements TextWatcher, OnCheckedChangeListener {
+        private final CheckBox mCheckBox;
+        private final NoteEditText mEdit;
+        private int mPosition;
+        private int mTextAppearanceResId;
+        private boolean mBinding;
+
+        public ViewHolder(View view) {
+            mCheckBox = (CheckBox) view.findViewById(R.id.cb_edit_item);
+            mEdit = (NoteEditText) view.findViewById(R.id.et_edit_text);
+            mEdit.setOnTextViewChangeListener(mTextViewChangeListener);
+            mEdit.addTextChangedListener(this);
+            mCheckBox.setOnCheckedChangeListener(this);
+        }
+
+        public void bind(int position) {
+            final Item item = mItems.get(position);
+            mBinding = true;
+            mPosition = position;
+            mEdit.setIndex(position);
+            if (mTextAppearanceResId != CheckListAdapter.this.mTextAppearanceResId) {
+                mTextAppearanceResId = CheckListAdapter.this.mTextAppearanceResId;
+                mEdit.setTextAppearance(mContext, mTextAppearanceResId);
+            }
+            mCheckBox.setChecked(item.mChecked);
+            setStrikeThrough(item.mChecked);
+            mEdit.setText(mQueryHighlighter != null ? mQueryHighlighter.highlight(item.mText)
+                    : item.mText);
+            mCheckBox.setVisibility(!TextUtils.isEmpty(item.mText) || position == mFocusPosition
+                    ? View.VISIBLE : View.GONE);
+            mBinding = false;
+
+            if (position == mFocusPosition) {
+                mFocusPosition = -1;
+                final int selection = Math.min(mFocusSelection, item.mText.length());
+                mEdit.post(new Runnable() {
+                    public void run() {
+                        // the row may have been bound to another item meanwhile
+                        if (mPosition < mItems.size() && mItems.get(mPosition) == item) {
+                            mEdit.requestFocus();
+                            mEdit.setSelection(Math.min(selection, mEdit.length()));
+                        }
+                    }
+                });
+            }
+        }
+
+        private void setStrikeThrough(boolean checked) {
+            if (checked) {
+                mEdit.setPaintFlags(mEdit.getPaintFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
+            } else {
+                mEdit.setPaintFlags(Paint.ANTI_ALIAS_FLAG | Paint.DEV_KERN_TEXT_FLAG);
+            }
+        }
+
+        public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+            setStrikeThrough(isChecked);
+            if (!mBinding && mPosition < mItems.size()) {
+                mItems.get(mPosition).mChecked = isChecked;
+            }
+        }
+
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+        }
+
+        public void afterTextChanged(Editable s) {
+            if (!mBinding && mPosition < mItems.size()) {
+                mItems.get(mPosition).mText = s.toString();
+            }
+        }
+    }
+}
@@ -17,50 +17,59 @@
 package net.micode.notes.ui;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.BaseAdapter;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
-import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.model.FolderIndex.Folder;
 
+import java.util.List;
 
-public class FoldersListAdapter extends CursorAdapter {
-    public static final String [] PROJECTION = {
-        NoteColumns.ID,
-        NoteColumns.SNIPPET
-    };
 
-    public static final int ID_COLUMN   = 0;
-    public static final int NAME_COLUMN = 1;
+/**
+ * Shows the folders of the folder index as the destinations of moving notes
+ */
+public class FoldersListAdapter extends BaseAdapter {
+    private final Context mContext;
+
+    private final List<Folder> mFolders;
+
+    public FoldersListAdapter(Context context, List<Folder> folders) {
+        mContext = context;
+        mFolders = folders;
+    }
+
+    public int getCount() {
+        return mFolders.size();
+    }
 
-    public FoldersListAdapter(Context context, Cursor c) {
-        super(context, c);
-        // TODO Auto-generated constructor stub
+    public Object getItem(int position) {
+        return mFolders.get(position);
     }
 
-    @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return new FolderListItem(context);
+    public long getItemId(int position) {
+        return mFolders.get(position).getId();
     }
 
-    @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        if (view instanceof FolderListItem) {
-            String folderName = (cursor.getLong(ID_COLUMN) == Notes.ID_ROOT_FOLDER) ? context
-                    .getString(R.string.menu_move_parent_folder) : cursor.getString(NAME_COLUMN);
-            ((FolderListItem) view).bind(folderName);
+    public View getView(int position, View convertView, ViewGroup parent) {
+        FolderListItem item;
+        if (convertView instanceof FolderListItem) {
+            item = (FolderListItem) convertView;
+        } else {
+            item = new FolderListItem(mContext);
         }
+        item.bind(getFolderName(mContext, position));
+        return item;
     }
 
     public String getFolderName(Context context, int position) {
-        Cursor cursor = (Cursor) getItem(position);
-        return (cursor.getLong(ID_COLUMN) == Notes.ID_ROOT_FOLDER) ? context
-                .getString(R.string.menu_move_parent_folder) : cursor.getString(NAME_COLUMN);
+        Folder folder = mFolders.get(position);
+        return (folder.getId() == Notes.ID_ROOT_FOLDER) ? context
+                .getString(R.string.menu_move_parent_folder) : folder.getName();
     }
 
     private class FolderListItem extends LinearLayout {
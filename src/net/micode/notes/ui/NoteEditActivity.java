@@ -27,36 +27,36 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.Paint;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
-import android.text.Spannable;
-import android.text.SpannableString;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.text.format.DateUtils;
-import android.text.style.BackgroundColorSpan;
 import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
-import android.widget.CheckBox;
-import android.widget.CompoundButton;
-import android.widget.CompoundButton.OnCheckedChangeListener;
 import android.widget.EditText;
 import android.widget.ImageView;
-import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.model.NoteRepository;
+import net.micode.notes.model.RevisionJournal;
 import net.micode.notes.model.WorkingNote;
 import net.micode.notes.model.WorkingNote.NoteSettingChangedListener;
+import net.micode.notes.tool.CheckListUtils;
 import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.ResourceParser;
 import net.micode.notes.tool.ResourceParser.TextAppearanceResources;
@@ -67,9 +67,8 @@ import net.micode.notes.widget.NoteWidgetProvider_4x;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 public class NoteEditActivity extends Activity implements OnClickListener,
@@ -130,6 +129,29 @@ public class NoteEditActivity extends Activity implements OnClickListener,
 
     private EditText mNoteEditor;
 
+    /**
+     * True while the editor is given the text of the note, which the note already has
+     */
+    private boolean mBindingEditor;
+
+    /**
+     * Mirrors every change of the editor into the note, so its text is never copied out of
+     * the editor as a whole
+     */
+    private final TextWatcher mNoteEditorWatcher = new TextWatcher() {
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            if (!mBindingEditor && mWorkingNote != null) {
+                mWorkingNote.replaceText(start, start + before, s, start, start + count);
+            }
+        }
+
+        public void afterTextChanged(Editable s) {
+        }
+    };
+
     private View mNoteEditorPanel;
 
     private WorkingNote mWorkingNote;
@@ -141,13 +163,33 @@ public class NoteEditActivity extends Activity implements OnClickListener,
 
     private static final int SHORTCUT_ICON_TITLE_MAX_LEN = 10;
 
-    public static final String TAG_CHECKED = String.valueOf('\u221A');
-    public static final String TAG_UNCHECKED = String.valueOf('\u25A1');
+    /**
+     * Longest time onPause waits for the note to be written
+     */
+    private static final long SAVE_FLUSH_TIMEOUT_MILLIS = 200;
+
+    public static final String TAG_CHECKED = CheckListUtils.TAG_CHECKED;
+    public static final String TAG_UNCHECKED = CheckListUtils.TAG_UNCHECKED;
+
+    private View mNoteEditorScroll;
+
+    private ListView mEditTextList;
+
+    private CheckListAdapter mCheckListAdapter;
+
+    /**
+     * Highlights the query of the search the note is opened from
+     */
+    private QueryHighlighter mQueryHighlighter;
+
+    private NoteLoadTask mLoadTask;
 
-    private LinearLayout mEditTextList;
+    private boolean mResumed;
 
-    private String mUserQuery;
-    private Pattern mPattern;
+    /**
+     * Uptime when the intent was handled, 0 once the opened note has been drawn
+     */
+    private long mOpenStartTime;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -184,33 +226,23 @@ public class NoteEditActivity extends Activity implements OnClickListener,
          * If the user specified the {@link Intent#ACTION_VIEW} but not provided with id,
          * then jump to the NotesListActivity
          */
+        cancelNoteLoad();
         mWorkingNote = null;
+        mOpenStartTime = SystemClock.uptimeMillis();
+        // the query is known before the note is loaded, so the highlighter is built once
+        mQueryHighlighter = new QueryHighlighter(getSearchQuery(intent),
+                getResources().getColor(R.color.user_query_highlight));
         if (TextUtils.equals(Intent.ACTION_VIEW, intent.getAction())) {
             long noteId = intent.getLongExtra(Intent.EXTRA_UID, 0);
-            mUserQuery = "";
 
             /**
              * Starting from the searched result
              */
             if (intent.hasExtra(SearchManager.EXTRA_DATA_KEY)) {
                 noteId = Long.parseLong(intent.getStringExtra(SearchManager.EXTRA_DATA_KEY));
-                mUserQuery = intent.getStringExtra(SearchManager.USER_QUERY);
             }
 
-            if (!DataUtils.visibleInNoteDatabase(getContentResolver(), noteId, Notes.TYPE_NOTE)) {
-                Intent jump = new Intent(this, NotesListActivity.class);
-                startActivity(jump);
-                showToast(R.string.error_note_not_exist);
-                finish();
-                return false;
-            } else {
-                mWorkingNote = WorkingNote.load(this, noteId);
-                if (mWorkingNote == null) {
-                    Log.e(TAG, "load note failed with note id" + noteId);
-                    finish();
-                    return false;
-                }
-            }
+            startNoteLoad(new NoteLoadTask(noteId));
             getWindow().setSoftInputMode(
                     WindowManager.LayoutParams.SOFT_INPUT_STATE_HIDDEN
                             | WindowManager.LayoutParams.SOFT_INPUT_ADJUST_RESIZE);
@@ -231,23 +263,12 @@ public class NoteEditActivity extends Activity implements OnClickListener,
                 if (TextUtils.isEmpty(phoneNumber)) {
                     Log.w(TAG, "The call record number is null");
                 }
-                long noteId = 0;
-                if ((noteId = DataUtils.getNoteIdByPhoneNumberAndCallDate(getContentResolver(),
-                        phoneNumber, callDate)) > 0) {
-                    mWorkingNote = WorkingNote.load(this, noteId);
-                    if (mWorkingNote == null) {
-                        Log.e(TAG, "load call note failed with note id" + noteId);
-                        finish();
-                        return false;
-                    }
-                } else {
-                    mWorkingNote = WorkingNote.createEmptyNote(this, folderId, widgetId,
-                            widgetType, bgResId);
-                    mWorkingNote.convertToCallNote(phoneNumber, callDate);
-                }
+                startNoteLoad(new NoteLoadTask(phoneNumber, callDate, folderId, widgetId,
+                        widgetType, bgResId));
             } else {
                 mWorkingNote = WorkingNote.createEmptyNote(this, folderId, widgetId, widgetType,
                         bgResId);
+                mWorkingNote.setOnSettingStatusChangedListener(this);
             }
 
             getWindow().setSoftInputMode(
@@ -258,23 +279,193 @@ public class NoteEditActivity extends Activity implements OnClickListener,
             finish();
             return false;
         }
-        mWorkingNote.setOnSettingStatusChangedListener(this);
         return true;
     }
 
+    /**
+     * @return the query of the search the note is opened from, or null
+     */
+    private static String getSearchQuery(Intent intent) {
+        if (TextUtils.equals(Intent.ACTION_VIEW, intent.getAction())
+                && intent.hasExtra(SearchManager.EXTRA_DATA_KEY)) {
+            return intent.getStringExtra(SearchManager.USER_QUERY);
+        }
+        return null;
+    }
+
+    private void startNoteLoad(NoteLoadTask task) {
+        mLoadTask = task;
+        // not queued behind the serial tasks of the other screens
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void cancelNoteLoad() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+            mLoadTask = null;
+        }
+    }
+
+    /**
+     * Bind the note loaded in background, the screen shows the skeleton until then
+     */
+    private void onNoteLoaded(NoteLoadTask task, WorkingNote note) {
+        if (note == null) {
+            if (task.isCallNote()) {
+                Log.e(TAG, "load call note failed with number " + task.mPhoneNumber);
+            } else {
+                Intent jump = new Intent(this, NotesListActivity.class);
+                startActivity(jump);
+                showToast(R.string.error_note_not_exist);
+            }
+            finish();
+            return;
+        }
+        mWorkingNote = note;
+        mWorkingNote.setOnSettingStatusChangedListener(this);
+        if (mResumed) {
+            initNoteScreen();
+        }
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * Load the note to edit off the UI thread, either an existing note by id or the note of a
+     * call record which is created when there is none yet
+     */
+    private class NoteLoadTask extends AsyncTask<Void, Void, WorkingNote> {
+        private final long mNoteId;
+        private final String mPhoneNumber;
+        private final long mCallDate;
+        private final long mFolderId;
+        private final int mWidgetId;
+        private final int mWidgetType;
+        private final int mBgResId;
+
+        public NoteLoadTask(long noteId) {
+            mNoteId = noteId;
+            mPhoneNumber = null;
+            mCallDate = 0;
+            mFolderId = 0;
+            mWidgetId = AppWidgetManager.INVALID_APPWIDGET_ID;
+            mWidgetType = Notes.TYPE_WIDGET_INVALIDE;
+            mBgResId = 0;
+        }
+
+        public NoteLoadTask(String phoneNumber, long callDate, long folderId, int widgetId,
+                int widgetType, int bgResId) {
+            mNoteId = 0;
+            mPhoneNumber = phoneNumber;
+            mCallDate = callDate;
+            mFolderId = folderId;
+            mWidgetId = widgetId;
+            mWidgetType = widgetType;
+            mBgResId = bgResId;
+        }
+
+        public boolean isCallNote() {
+            return mPhoneNumber != null;
+        }
+
+        @Override
+        protected WorkingNote doInBackground(Void... unused) {
+            Context context = NoteEditActivity.this;
+            try {
+                if (!isCallNote()) {
+                    if (!NoteRepository.getInstance(context).isVisible(mNoteId,
+                            Notes.TYPE_NOTE) || isCancelled()) {
+                        return null;
+                    }
+                    return WorkingNote.load(context, mNoteId);
+                }
+
+                long noteId = DataUtils.getNoteIdByPhoneNumberAndCallDate(
+                        context.getContentResolver(), mPhoneNumber, mCallDate);
+                if (isCancelled()) {
+                    return null;
+                }
+                if (noteId > 0) {
+                    return WorkingNote.load(context, noteId);
+                }
+                WorkingNote note = WorkingNote.createEmptyNote(context, mFolderId, mWidgetId,
+                        mWidgetType, mBgResId);
+                note.convertToCallNote(mPhoneNumber, mCallDate);
+                return note;
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "load note failed with note id" + mNoteId, e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(WorkingNote note) {
+            if (mLoadTask != this || isFinishing()) {
+                return;
+            }
+            mLoadTask = null;
+            onNoteLoaded(this, note);
+        }
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
+        mResumed = true;
         initNoteScreen();
     }
 
+    @Override
+    protected void onDestroy() {
+        cancelNoteLoad();
+        super.onDestroy();
+    }
+
+    /**
+     * Show an empty editor without date and alert while the note is loading
+     */
+    private void showNoteSkeleton() {
+        mNoteEditor.setText("");
+        mNoteEditor.setEnabled(false);
+        showCheckList(false);
+        mNoteHeaderHolder.tvModified.setText("");
+        mNoteHeaderHolder.tvAlertDate.setVisibility(View.GONE);
+        mNoteHeaderHolder.ivAlertIcon.setVisibility(View.GONE);
+    }
+
+    /**
+     * Log the time from handling the intent to drawing the loaded note once
+     */
+    private void logOpenTimeOnDraw() {
+        if (mOpenStartTime == 0) {
+            return;
+        }
+        final long startTime = mOpenStartTime;
+        mOpenStartTime = 0;
+        final ViewTreeObserver observer = mNoteEditorPanel.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            public boolean onPreDraw() {
+                if (observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                Log.d(TAG, "Note drawn " + (SystemClock.uptimeMillis() - startTime)
+                        + "ms after opening");
+                return true;
+            }
+        });
+    }
+
     private void initNoteScreen() {
+        if (mWorkingNote == null) {
+            showNoteSkeleton();
+            return;
+        }
+        mNoteEditor.setEnabled(true);
         mNoteEditor.setTextAppearance(this, TextAppearanceResources
                 .getTexAppearanceResource(mFontSizeId));
         if (mWorkingNote.getCheckListMode() == TextNote.MODE_CHECK_LIST) {
             switchToListMode(mWorkingNote.getContent());
         } else {
-            mNoteEditor.setText(getHighlightQueryResult(mWorkingNote.getContent(), mUserQuery));
+            setEditorText(mQueryHighlighter.highlight(mWorkingNote.getContent()));
             mNoteEditor.setSelection(mNoteEditor.getText().length());
         }
         for (Integer id : sBgSelectorSelectionMap.keySet()) {
@@ -293,6 +484,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
          * is not ready
          */
         showAlertHeader();
+        logOpenTimeOnDraw();
     }
 
     private void showAlertHeader() {
@@ -321,6 +513,13 @@ public class NoteEditActivity extends Activity implements OnClickListener,
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
+        if (mWorkingNote == null) {
+            // still loading, open the same note again when restored
+            if (mLoadTask != null && !mLoadTask.isCallNote()) {
+                outState.putLong(Intent.EXTRA_UID, mLoadTask.mNoteId);
+            }
+            return;
+        }
         /**
          * For new note without note id, we should firstly save it to
          * generate a id. If the editing note is not worth saving, there
@@ -372,6 +571,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         mNoteHeaderHolder.ibSetBgColor = (ImageView) findViewById(R.id.btn_set_bg_color);
         mNoteHeaderHolder.ibSetBgColor.setOnClickListener(this);
         mNoteEditor = (EditText) findViewById(R.id.note_edit_view);
+        mNoteEditor.addTextChangedListener(mNoteEditorWatcher);
         mNoteEditorPanel = findViewById(R.id.sv_note_edit);
         mNoteBgColorSelector = findViewById(R.id.note_bg_color_selector);
         for (int id : sBgSelectorBtnsMap.keySet()) {
@@ -394,14 +594,20 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         if(mFontSizeId >= TextAppearanceResources.getResourcesSize()) {
             mFontSizeId = ResourceParser.BG_DEFAULT_FONT_SIZE;
         }
-        mEditTextList = (LinearLayout) findViewById(R.id.note_edit_list);
+        mNoteEditorScroll = findViewById(R.id.sv_note_text);
+        mEditTextList = (ListView) findViewById(R.id.note_edit_list);
+        mEditTextList.setItemsCanFocus(true);
+        mCheckListAdapter = new CheckListAdapter(this, this);
+        mEditTextList.setAdapter(mCheckListAdapter);
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        if(saveNote()) {
-            Log.d(TAG, "Note data was saved with length:" + mWorkingNote.getContent().length());
+        mResumed = false;
+        if(saveNoteInBackground(true)) {
+            Log.d(TAG, "Note data was saved with length:"
+                    + mWorkingNote.getDocument().length());
         }
         clearSettingState();
     }
@@ -426,6 +632,9 @@ public class NoteEditActivity extends Activity implements OnClickListener,
     }
 
     public void onClick(View v) {
+        if (mWorkingNote == null) {
+            return;
+        }
         int id = v.getId();
         if (id == R.id.btn_set_bg_color) {
             mNoteBgColorSelector.setVisibility(View.VISIBLE);
@@ -442,8 +651,8 @@ public class NoteEditActivity extends Activity implements OnClickListener,
             mSharedPrefs.edit().putInt(PREFERENCE_FONT_SIZE, mFontSizeId).commit();
             findViewById(sFontSelectorSelectionMap.get(mFontSizeId)).setVisibility(View.VISIBLE);
             if (mWorkingNote.getCheckListMode() == TextNote.MODE_CHECK_LIST) {
-                getWorkingText();
-                switchToListMode(mWorkingNote.getContent());
+                mCheckListAdapter.setTextAppearance(
+                        TextAppearanceResources.getTexAppearanceResource(mFontSizeId));
             } else {
                 mNoteEditor.setTextAppearance(this,
                         TextAppearanceResources.getTexAppearanceResource(mFontSizeId));
@@ -458,7 +667,10 @@ public class NoteEditActivity extends Activity implements OnClickListener,
             return;
         }
 
-        saveNote();
+        // backing out while loading drops the note which is not shown yet
+        cancelNoteLoad();
+        // written together with the flush of onPause
+        saveNoteInBackground(false);
         super.onBackPressed();
     }
 
@@ -487,6 +699,10 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         }
         clearSettingState();
         menu.clear();
+        if (mWorkingNote == null) {
+            // the menu is prepared again once the note is loaded
+            return true;
+        }
         if (mWorkingNote.getFolderId() == Notes.ID_CALL_RECORD_FOLDER) {
             getMenuInflater().inflate(R.menu.call_note_edit, menu);
         } else {
@@ -502,6 +718,10 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         } else {
             menu.findItem(R.id.menu_delete_remind).setVisible(false);
         }
+        MenuItem revisions = menu.findItem(R.id.menu_revisions);
+        if (revisions != null) {
+            revisions.setVisible(mWorkingNote.existInDatabase());
+        }
         return true;
     }
 
@@ -538,6 +758,9 @@ public class NoteEditActivity extends Activity implements OnClickListener,
                 getWorkingText();
                 sendTo(this, mWorkingNote.getContent());
                 break;
+            case R.id.menu_revisions:
+                showRevisions();
+                break;
             case R.id.menu_send_to_desktop:
                 sendToDesktop();
                 break;
@@ -576,7 +799,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
 
     private void createNewNote() {
         // Firstly, save current editing notes
-        saveNote();
+        saveNoteInBackground(false);
 
         // For safety, start a new NoteEditActivity
         finish();
@@ -586,6 +809,75 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         startActivity(intent);
     }
 
+    /**
+     * Show the saved revisions of the note, the chosen one replaces the text as a new edit so
+     * restoring it can be undone the same way
+     */
+    private void showRevisions() {
+        // the edits made since the latest save become the latest revision
+        saveNoteInBackground(true);
+        final long noteId = mWorkingNote.getNoteId();
+        new AsyncTask<Void, Void, List<RevisionJournal.Entry>>() {
+            @Override
+            protected List<RevisionJournal.Entry> doInBackground(Void... unused) {
+                return RevisionJournal.getEntries(NoteEditActivity.this, noteId);
+            }
+
+            @Override
+            protected void onPostExecute(final List<RevisionJournal.Entry> entries) {
+                if (isFinishing() || mWorkingNote == null || mWorkingNote.getNoteId() != noteId) {
+                    return;
+                }
+                if (entries.isEmpty()) {
+                    showToast(R.string.error_no_revision);
+                    return;
+                }
+                String[] dates = new String[entries.size()];
+                for (int i = 0; i < dates.length; i++) {
+                    dates[i] = DateUtils.formatDateTime(NoteEditActivity.this,
+                            entries.get(i).getCreatedDate(), DateUtils.FORMAT_SHOW_DATE
+                                    | DateUtils.FORMAT_NUMERIC_DATE | DateUtils.FORMAT_SHOW_TIME);
+                }
+                AlertDialog.Builder builder = new AlertDialog.Builder(NoteEditActivity.this);
+                builder.setTitle(R.string.menu_revisions);
+                builder.setItems(dates, new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        restoreRevision(noteId, entries.get(which).getId());
+                    }
+                });
+                builder.setNegativeButton(android.R.string.cancel, null);
+                builder.show();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void restoreRevision(final long noteId, final long revisionId) {
+        new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(Void... unused) {
+                return RevisionJournal.loadText(NoteEditActivity.this, noteId, revisionId);
+            }
+
+            @Override
+            protected void onPostExecute(String text) {
+                if (isFinishing() || mWorkingNote == null || mWorkingNote.getNoteId() != noteId) {
+                    return;
+                }
+                if (text == null) {
+                    showToast(R.string.error_restore_revision);
+                    return;
+                }
+                mWorkingNote.setWorkingText(text);
+                if (mWorkingNote.getCheckListMode() == TextNote.MODE_CHECK_LIST) {
+                    switchToListMode(text);
+                } else {
+                    setEditorText(mQueryHighlighter.highlight(text));
+                    mNoteEditor.setSelection(mNoteEditor.length());
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
     private void deleteCurrentNote() {
         if (mWorkingNote.existInDatabase()) {
             HashSet<Long> ids = new HashSet<Long>();
@@ -647,138 +939,91 @@ public class NoteEditActivity extends Activity implements OnClickListener,
     }
 
     public void onEditTextDelete(int index, String text) {
-        int childCount = mEditTextList.getChildCount();
-        if (childCount == 1) {
+        if (mCheckListAdapter.getCount() == 1) {
             return;
         }
-
-        for (int i = index + 1; i < childCount; i++) {
-            ((NoteEditText) mEditTextList.getChildAt(i).findViewById(R.id.et_edit_text))
-                    .setIndex(i - 1);
-        }
-
-        mEditTextList.removeViewAt(index);
-        NoteEditText edit = null;
-        if(index == 0) {
-            edit = (NoteEditText) mEditTextList.getChildAt(0).findViewById(
-                    R.id.et_edit_text);
-        } else {
-            edit = (NoteEditText) mEditTextList.getChildAt(index - 1).findViewById(
-                    R.id.et_edit_text);
-        }
-        int length = edit.length();
-        edit.append(text);
-        edit.requestFocus();
-        edit.setSelection(length);
+        // the text of the removed item is already in the model, it is appended to the
+        // previous item by the adapter
+        mCheckListAdapter.removeItem(index);
+        scrollToCheckListItem(Math.max(0, index - 1));
     }
 
     public void onEditTextEnter(int index, String text) {
         /**
          * Should not happen, check for debug
          */
-        if(index > mEditTextList.getChildCount()) {
+        if(index > mCheckListAdapter.getCount()) {
             Log.e(TAG, "Index out of mEditTextList boundrary, should not happen");
+            index = mCheckListAdapter.getCount();
         }
 
-        View view = getListItem(text, index);
-        mEditTextList.addView(view, index);
-        NoteEditText edit = (NoteEditText) view.findViewById(R.id.et_edit_text);
-        edit.requestFocus();
-        edit.setSelection(0);
-        for (int i = index + 1; i < mEditTextList.getChildCount(); i++) {
-            ((NoteEditText) mEditTextList.getChildAt(i).findViewById(R.id.et_edit_text))
-                    .setIndex(i);
-        }
+        mCheckListAdapter.insertItem(index, text);
+        scrollToCheckListItem(index);
     }
 
-    private void switchToListMode(String text) {
-        mEditTextList.removeAllViews();
-        String[] items = text.split("\n");
-        int index = 0;
-        for (String item : items) {
-            if(!TextUtils.isEmpty(item)) {
-                mEditTextList.addView(getListItem(item, index));
-                index++;
-            }
-        }
-        mEditTextList.addView(getListItem("", index));
-        mEditTextList.getChildAt(index).findViewById(R.id.et_edit_text).requestFocus();
-
-        mNoteEditor.setVisibility(View.GONE);
-        mEditTextList.setVisibility(View.VISIBLE);
-    }
-
-    private Spannable getHighlightQueryResult(String fullText, String userQuery) {
-        SpannableString spannable = new SpannableString(fullText == null ? "" : fullText);
-        if (!TextUtils.isEmpty(userQuery)) {
-            mPattern = Pattern.compile(userQuery);
-            Matcher m = mPattern.matcher(fullText);
-            int start = 0;
-            while (m.find(start)) {
-                spannable.setSpan(
-                        new BackgroundColorSpan(this.getResources().getColor(
-                                R.color.user_query_highlight)), m.start(), m.end(),
-                        Spannable.SPAN_INCLUSIVE_EXCLUSIVE);
-                start = m.end();
-            }
+    /**
+     * Bring the row of the item on screen if it is not, so it is bound and gets the focus
+     */
+    private void scrollToCheckListItem(int index) {
+        if (index < mEditTextList.getFirstVisiblePosition()
+                || index >= mEditTextList.getLastVisiblePosition()) {
+            mEditTextList.setSelection(index);
         }
-        return spannable;
     }
 
-    private View getListItem(String item, int index) {
-        View view = LayoutInflater.from(this).inflate(R.layout.note_edit_list_item, null);
-        final NoteEditText edit = (NoteEditText) view.findViewById(R.id.et_edit_text);
-        edit.setTextAppearance(this, TextAppearanceResources.getTexAppearanceResource(mFontSizeId));
-        CheckBox cb = ((CheckBox) view.findViewById(R.id.cb_edit_item));
-        cb.setOnCheckedChangeListener(new OnCheckedChangeListener() {
-            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                if (isChecked) {
-                    edit.setPaintFlags(edit.getPaintFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
-                } else {
-                    edit.setPaintFlags(Paint.ANTI_ALIAS_FLAG | Paint.DEV_KERN_TEXT_FLAG);
-                }
-            }
-        });
+    private void showCheckList(boolean show) {
+        mNoteEditorScroll.setVisibility(show ? View.GONE : View.VISIBLE);
+        mNoteEditor.setVisibility(show ? View.GONE : View.VISIBLE);
+        mEditTextList.setVisibility(show ? View.VISIBLE : View.GONE);
+    }
 
-        if (item.startsWith(TAG_CHECKED)) {
-            cb.setChecked(true);
-            edit.setPaintFlags(edit.getPaintFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
-            item = item.substring(TAG_CHECKED.length(), item.length()).trim();
-        } else if (item.startsWith(TAG_UNCHECKED)) {
-            cb.setChecked(false);
-            edit.setPaintFlags(Paint.ANTI_ALIAS_FLAG | Paint.DEV_KERN_TEXT_FLAG);
-            item = item.substring(TAG_UNCHECKED.length(), item.length()).trim();
+    /**
+     * Show the text of the note in the editor, the note is not changed by it
+     */
+    private void setEditorText(CharSequence text) {
+        mBindingEditor = true;
+        try {
+            mNoteEditor.setText(text);
+        } finally {
+            mBindingEditor = false;
         }
+    }
 
-        edit.setOnTextViewChangeListener(this);
-        edit.setIndex(index);
-        edit.setText(getHighlightQueryResult(item, mUserQuery));
-        return view;
+    private void switchToListMode(String text) {
+        mCheckListAdapter.setTextAppearance(
+                TextAppearanceResources.getTexAppearanceResource(mFontSizeId));
+        mCheckListAdapter.setText(text, mQueryHighlighter);
+        mEditTextList.setSelection(mCheckListAdapter.getCount() - 1);
+        showCheckList(true);
     }
 
     public void onTextChange(int index, boolean hasText) {
-        if (index >= mEditTextList.getChildCount()) {
+        if (index >= mCheckListAdapter.getCount()) {
             Log.e(TAG, "Wrong index, should not happen");
             return;
         }
+        // only the bound rows have a view, the others show the check box once bound
+        View view = mEditTextList.getChildAt(index - mEditTextList.getFirstVisiblePosition());
+        if (view == null) {
+            return;
+        }
         if(hasText) {
-            mEditTextList.getChildAt(index).findViewById(R.id.cb_edit_item).setVisibility(View.VISIBLE);
+            view.findViewById(R.id.cb_edit_item).setVisibility(View.VISIBLE);
         } else {
-            mEditTextList.getChildAt(index).findViewById(R.id.cb_edit_item).setVisibility(View.GONE);
+            view.findViewById(R.id.cb_edit_item).setVisibility(View.GONE);
         }
     }
 
     public void onCheckListModeChanged(int oldMode, int newMode) {
         if (newMode == TextNote.MODE_CHECK_LIST) {
-            switchToListMode(mNoteEditor.getText().toString());
+            switchToListMode(mWorkingNote.getContent());
         } else {
             if (!getWorkingText()) {
                 mWorkingNote.setWorkingText(mWorkingNote.getContent().replace(TAG_UNCHECKED + " ",
                         ""));
             }
-            mNoteEditor.setText(getHighlightQueryResult(mWorkingNote.getContent(), mUserQuery));
-            mEditTextList.setVisibility(View.GONE);
-            mNoteEditor.setVisibility(View.VISIBLE);
+            setEditorText(mQueryHighlighter.highlight(mWorkingNote.getContent()));
+            showCheckList(false);
         }
     }
 
@@ -786,26 +1031,27 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         boolean hasChecked = false;
         if (mWorkingNote.getCheckListMode() == TextNote.MODE_CHECK_LIST) {
             StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < mEditTextList.getChildCount(); i++) {
-                View view = mEditTextList.getChildAt(i);
-                NoteEditText edit = (NoteEditText) view.findViewById(R.id.et_edit_text);
-                if (!TextUtils.isEmpty(edit.getText())) {
-                    if (((CheckBox) view.findViewById(R.id.cb_edit_item)).isChecked()) {
-                        sb.append(TAG_CHECKED).append(" ").append(edit.getText()).append("\n");
-                        hasChecked = true;
-                    } else {
-                        sb.append(TAG_UNCHECKED).append(" ").append(edit.getText()).append("\n");
-                    }
+            List<CheckListAdapter.Item> items = mCheckListAdapter.getItems();
+            for (int i = 0; i < items.size(); i++) {
+                CheckListAdapter.Item item = items.get(i);
+                CheckListUtils.appendItem(sb, item.getText(), item.isChecked());
+                if (item.isChecked() && !TextUtils.isEmpty(item.getText())) {
+                    hasChecked = true;
                 }
             }
             mWorkingNote.setWorkingText(sb.toString());
-        } else {
-            mWorkingNote.setWorkingText(mNoteEditor.getText().toString());
         }
+        // otherwise the note has the text of the editor already, see mNoteEditorWatcher
         return hasChecked;
     }
 
+    /**
+     * Save the note and wait for the write, for the callers which need the note id
+     */
     private boolean saveNote() {
+        if (mWorkingNote == null) {
+            return false;
+        }
         getWorkingText();
         boolean saved = mWorkingNote.saveNote();
         if (saved) {
@@ -821,6 +1067,26 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         return saved;
     }
 
+    /**
+     * Queue the note on the save queue of {@link WorkingNote}
+     * @param flush true to write right away and wait for {@link #SAVE_FLUSH_TIMEOUT_MILLIS} at
+     *        most, otherwise the write is delayed to coalesce with the following requests
+     * @return true if the note has changes to write
+     */
+    private boolean saveNoteInBackground(boolean flush) {
+        if (mWorkingNote == null) {
+            return false;
+        }
+        getWorkingText();
+        boolean saved = flush ? mWorkingNote.flushSave(SAVE_FLUSH_TIMEOUT_MILLIS)
+                : mWorkingNote.requestSave();
+        if (saved) {
+            // see saveNote
+            setResult(RESULT_OK);
+        }
+        return saved;
+    }
+
     private void sendToDesktop() {
         /**
          * Before send message to home, we should make sure that current
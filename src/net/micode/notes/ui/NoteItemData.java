@@ -19,11 +19,14 @@ package net.micode.notes.ui;
 import android.content.Context;
 import android.database.Cursor;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
 
+import net.micode.notes.R;
 import net.micode.notes.data.Contact;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
-import net.micode.notes.tool.DataUtils;
+
+import java.util.List;
 
 
 public class NoteItemData {
@@ -36,10 +39,11 @@ public class NoteItemData {
         NoteColumns.MODIFIED_DATE,
         NoteColumns.NOTES_COUNT,
         NoteColumns.PARENT_ID,
-        NoteColumns.SNIPPET,
+        NoteColumns.DISPLAY_TITLE,
         NoteColumns.TYPE,
         NoteColumns.WIDGET_ID,
         NoteColumns.WIDGET_TYPE,
+        Notes.COLUMN_CALL_NUMBER,
     };
 
     private static final int ID_COLUMN                    = 0;
@@ -54,6 +58,7 @@ public class NoteItemData {
     private static final int TYPE_COLUMN                  = 9;
     private static final int WIDGET_ID_COLUMN             = 10;
     private static final int WIDGET_TYPE_COLUMN           = 11;
+    private static final int CALL_NUMBER_COLUMN           = 12;
 
     private long mId;
     private long mAlertDate;
@@ -69,6 +74,10 @@ public class NoteItemData {
     private int mWidgetType;
     private String mName;
     private String mPhoneNumber;
+    private boolean mNameResolved;
+    private String mTitle;
+    private CharSequence mRelativeTime;
+    private long mRelativeTimeMinute;
 
     private boolean mIsLastItem;
     private boolean mIsFirstItem;
@@ -85,19 +94,26 @@ public class NoteItemData {
         mModifiedDate = cursor.getLong(MODIFIED_DATE_COLUMN);
         mNotesCount = cursor.getInt(NOTES_COUNT_COLUMN);
         mParentId = cursor.getLong(PARENT_ID_COLUMN);
+        // the display title is already the first line without checklist tags
         mSnippet = cursor.getString(SNIPPET_COLUMN);
-        mSnippet = mSnippet.replace(NoteEditActivity.TAG_CHECKED, "").replace(
-                NoteEditActivity.TAG_UNCHECKED, "");
         mType = cursor.getInt(TYPE_COLUMN);
         mWidgetId = cursor.getInt(WIDGET_ID_COLUMN);
         mWidgetType = cursor.getInt(WIDGET_TYPE_COLUMN);
 
         mPhoneNumber = "";
+        mNameResolved = true;
         if (mParentId == Notes.ID_CALL_RECORD_FOLDER) {
-            mPhoneNumber = DataUtils.getCallNumberByNoteId(context.getContentResolver(), mId);
+            mPhoneNumber = cursor.getString(CALL_NUMBER_COLUMN);
+            if (mPhoneNumber == null) {
+                mPhoneNumber = "";
+            }
             if (!TextUtils.isEmpty(mPhoneNumber)) {
-                mName = Contact.getContact(context, mPhoneNumber);
+                // the name is looked up by the adapter, show the number until then
+                mName = Contact.getCachedContact(mPhoneNumber);
                 if (mName == null) {
+                    mNameResolved = false;
+                }
+                if (TextUtils.isEmpty(mName)) {
                     mName = mPhoneNumber;
                 }
             }
@@ -106,32 +122,123 @@ public class NoteItemData {
         if (mName == null) {
             mName = "";
         }
-        checkPostion(cursor);
-    }
-
-    private void checkPostion(Cursor cursor) {
-        mIsLastItem = cursor.isLast() ? true : false;
-        mIsFirstItem = cursor.isFirst() ? true : false;
-        mIsOnlyOneItem = (cursor.getCount() == 1);
-        mIsMultiNotesFollowingFolder = false;
-        mIsOneNoteFollowingFolder = false;
-
-        if (mType == Notes.TYPE_NOTE && !mIsFirstItem) {
-            int position = cursor.getPosition();
-            if (cursor.moveToPrevious()) {
-                if (cursor.getInt(TYPE_COLUMN) == Notes.TYPE_FOLDER
-                        || cursor.getInt(TYPE_COLUMN) == Notes.TYPE_SYSTEM) {
-                    if (cursor.getCount() > (position + 1)) {
-                        mIsMultiNotesFollowingFolder = true;
-                    } else {
-                        mIsOneNoteFollowingFolder = true;
-                    }
-                }
-                if (!cursor.moveToNext()) {
-                    throw new IllegalStateException("cursor move to previous but can't move back");
+
+        if (mId == Notes.ID_CALL_RECORD_FOLDER) {
+            mTitle = context.getString(R.string.call_record_folder_name)
+                    + context.getString(R.string.format_folder_files_count, mNotesCount);
+        } else if (mType == Notes.TYPE_FOLDER) {
+            mTitle = mSnippet + context.getString(R.string.format_folder_files_count,
+                    mNotesCount);
+        } else {
+            mTitle = mSnippet;
+        }
+    }
+
+    private NoteItemData(NoteItemData other) {
+        mId = other.mId;
+        mAlertDate = other.mAlertDate;
+        mBgColorId = other.mBgColorId;
+        mCreatedDate = other.mCreatedDate;
+        mHasAttachment = other.mHasAttachment;
+        mModifiedDate = other.mModifiedDate;
+        mNotesCount = other.mNotesCount;
+        mParentId = other.mParentId;
+        mSnippet = other.mSnippet;
+        mType = other.mType;
+        mWidgetId = other.mWidgetId;
+        mWidgetType = other.mWidgetType;
+        mName = other.mName;
+        mPhoneNumber = other.mPhoneNumber;
+        mNameResolved = other.mNameResolved;
+        mTitle = other.mTitle;
+        mRelativeTime = other.mRelativeTime;
+        mRelativeTimeMinute = other.mRelativeTimeMinute;
+        mIsLastItem = other.mIsLastItem;
+        mIsFirstItem = other.mIsFirstItem;
+        mIsOnlyOneItem = other.mIsOnlyOneItem;
+        mIsOneNoteFollowingFolder = other.mIsOneNoteFollowingFolder;
+        mIsMultiNotesFollowingFolder = other.mIsMultiNotesFollowingFolder;
+    }
+
+    /**
+     * Get the item placed at the position of the rows, which decides its background
+     * @return this item if it is already at such a position, otherwise a copy of it
+     */
+    NoteItemData atPosition(List<NoteItemData> rows, int position) {
+        int count = rows.size();
+        boolean isLast = (position == count - 1);
+        boolean isFirst = (position == 0);
+        boolean isOnlyOne = (count == 1);
+        boolean isMultiFollowingFolder = false;
+        boolean isOneFollowingFolder = false;
+
+        if (mType == Notes.TYPE_NOTE && !isFirst) {
+            int previousType = rows.get(position - 1).getType();
+            if (previousType == Notes.TYPE_FOLDER || previousType == Notes.TYPE_SYSTEM) {
+                if (count > (position + 1)) {
+                    isMultiFollowingFolder = true;
+                } else {
+                    isOneFollowingFolder = true;
                 }
             }
         }
+
+        if (isLast == mIsLastItem && isFirst == mIsFirstItem && isOnlyOne == mIsOnlyOneItem
+                && isMultiFollowingFolder == mIsMultiNotesFollowingFolder
+                && isOneFollowingFolder == mIsOneNoteFollowingFolder) {
+            return this;
+        }
+        NoteItemData item = new NoteItemData(this);
+        item.mIsLastItem = isLast;
+        item.mIsFirstItem = isFirst;
+        item.mIsOnlyOneItem = isOnlyOne;
+        item.mIsMultiNotesFollowingFolder = isMultiFollowingFolder;
+        item.mIsOneNoteFollowingFolder = isOneFollowingFolder;
+        return item;
+    }
+
+    /**
+     * Get the item with the contact name looked up since it was created
+     * @return this item if the name is not in the cache yet
+     */
+    NoteItemData withCachedCallName() {
+        if (mNameResolved) {
+            return this;
+        }
+        String name = Contact.getCachedContact(mPhoneNumber);
+        if (name == null) {
+            return this;
+        }
+        NoteItemData item = new NoteItemData(this);
+        item.mName = TextUtils.isEmpty(name) ? mPhoneNumber : name;
+        item.mNameResolved = true;
+        return item;
+    }
+
+    /**
+     * @return true if the other item shows the same in the list
+     */
+    boolean isSameAs(NoteItemData other) {
+        return mId == other.mId
+                && mAlertDate == other.mAlertDate
+                && mBgColorId == other.mBgColorId
+                && mCreatedDate == other.mCreatedDate
+                && mHasAttachment == other.mHasAttachment
+                && mModifiedDate == other.mModifiedDate
+                && mNotesCount == other.mNotesCount
+                && mParentId == other.mParentId
+                && mType == other.mType
+                && mWidgetId == other.mWidgetId
+                && mWidgetType == other.mWidgetType
+                && mNameResolved == other.mNameResolved
+                && mIsLastItem == other.mIsLastItem
+                && mIsFirstItem == other.mIsFirstItem
+                && mIsOnlyOneItem == other.mIsOnlyOneItem
+                && mIsOneNoteFollowingFolder == other.mIsOneNoteFollowingFolder
+                && mIsMultiNotesFollowingFolder == other.mIsMultiNotesFollowingFolder
+                && TextUtils.equals(mSnippet, other.mSnippet)
+                && TextUtils.equals(mName, other.mName)
+                && TextUtils.equals(mPhoneNumber, other.mPhoneNumber);
     }
 
     public boolean isOneFollowingFolder() {
@@ -150,6 +257,17 @@ public class NoteItemData {
         return mName;
     }
 
+    public String getCallNumber() {
+        return mPhoneNumber;
+    }
+
+    /**
+     * @return false if the contact name of the call number has not been looked up yet
+     */
+    public boolean isCallNameResolved() {
+        return mNameResolved;
+    }
+
     public boolean isFirst() {
         return mIsFirstItem;
     }
@@ -210,6 +328,26 @@ public class NoteItemData {
         return mSnippet;
     }
 
+    /**
+     * @return the text of the list row title, built when the item is created
+     */
+    public String getTitle() {
+        return mTitle;
+    }
+
+    /**
+     * Get the modified time relative to now, it is formatted once a minute at most
+     */
+    public CharSequence getRelativeTime(long now) {
+        long minute = now / DateUtils.MINUTE_IN_MILLIS;
+        if (mRelativeTime == null || minute != mRelativeTimeMinute) {
+            mRelativeTime = DateUtils.getRelativeTimeSpanString(mModifiedDate, now,
+                    DateUtils.MINUTE_IN_MILLIS);
+            mRelativeTimeMinute = minute;
+        }
+        return mRelativeTime;
+    }
+
     public boolean hasAlert() {
         return (mAlertDate > 0);
     }
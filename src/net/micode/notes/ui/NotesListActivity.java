@@ -21,15 +21,20 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.appwidget.AppWidgetManager;
 import android.content.AsyncQueryHandler;
+import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.text.Editable;
 import android.text.TextUtils;
@@ -50,6 +55,8 @@ import android.view.View.OnClickListener;
 import android.view.View.OnCreateContextMenuListener;
 import android.view.View.OnTouchListener;
 import android.view.inputmethod.InputMethodManager;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.AdapterView.OnItemLongClickListener;
@@ -64,9 +71,13 @@ import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.gtask.remote.GTaskSyncService;
+import net.micode.notes.model.FolderIndex;
+import net.micode.notes.model.FolderIndex.Folder;
+import net.micode.notes.model.NoteRepository;
 import net.micode.notes.model.WorkingNote;
 import net.micode.notes.tool.BackupUtils;
 import net.micode.notes.tool.DataUtils;
+import net.micode.notes.tool.LongHashSet;
 import net.micode.notes.tool.ResourceParser;
 import net.micode.notes.ui.NotesListAdapter.AppWidgetAttribute;
 import net.micode.notes.widget.NoteWidgetProvider_2x;
@@ -76,12 +87,19 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 
 public class NotesListActivity extends Activity implements OnClickListener, OnItemLongClickListener {
-    private static final int FOLDER_NOTE_LIST_QUERY_TOKEN = 0;
+    private static final int FOLDER_NOTE_COUNT_QUERY_TOKEN = 3;
 
-    private static final int FOLDER_LIST_QUERY_TOKEN      = 1;
+    private static final int NOTES_LIST_PAGE_SIZE = 50;
+
+    private static final int NOTES_LIST_PREFETCH_ROWS = 10;
+
+    private static final String NOTES_LIST_SORT_ORDER = NoteColumns.TYPE + " DESC,"
+            + NoteColumns.MODIFIED_DATE + " DESC," + NoteColumns.ID + " DESC";
 
     private static final int MENU_FOLDER_DELETE = 0;
 
@@ -119,6 +137,33 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
     private ModeCallback mModeCallBack;
 
+    private boolean mHasMorePages;
+
+    private boolean mLoadingPage;
+
+    private long mListGeneration;
+
+    private boolean mListDirty;
+
+    private boolean mStarted;
+
+    private ContentObserver mNotesObserver;
+
+    private boolean mPrefetching;
+
+    private boolean mPrefetchPending;
+
+    /**
+     * Refresh the relative times of the visible rows once a minute, the other rows get the
+     * time when they are bound
+     */
+    private final BroadcastReceiver mTimeTickReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            updateVisibleItemsTime();
+        }
+    };
+
     private static final String TAG = "NotesListActivity";
 
     public static final int NOTES_LISTVIEW_SCROLL_RATE = 30;
@@ -132,6 +177,9 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
             + NoteColumns.ID + "=" + Notes.ID_CALL_RECORD_FOLDER + " AND "
             + NoteColumns.NOTES_COUNT + ">0)";
 
+    private static final String NOTES_COUNT_SELECTION = NoteColumns.PARENT_ID + "=? AND "
+            + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE;
+
     private final static int REQUEST_CODE_OPEN_NODE = 102;
     private final static int REQUEST_CODE_NEW_NODE  = 103;
 
@@ -151,7 +199,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (resultCode == RESULT_OK
                 && (requestCode == REQUEST_CODE_OPEN_NODE || requestCode == REQUEST_CODE_NEW_NODE)) {
-            mNotesListAdapter.changeCursor(null);
+            mListDirty = true;
         } else {
             super.onActivityResult(requestCode, resultCode, data);
         }
@@ -206,7 +254,42 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     @Override
     protected void onStart() {
         super.onStart();
-        startAsyncNotesListQuery();
+        mStarted = true;
+        // the list is kept while stopped unless the notes have changed meanwhile
+        if (mListDirty) {
+            reloadNotesList();
+        }
+        IntentFilter filter = new IntentFilter(Intent.ACTION_TIME_TICK);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        registerReceiver(mTimeTickReceiver, filter);
+        updateVisibleItemsTime();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        unregisterReceiver(mTimeTickReceiver);
+        mStarted = false;
+        NoteRepository repository = NoteRepository.getInstance(this);
+        Log.i(TAG, "Note body cache hit rate " + repository.getBodyHitRate() + " of "
+                + repository.getBodyRequestCount() + " requests");
+    }
+
+    private void updateVisibleItemsTime() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < mNotesListView.getChildCount(); i++) {
+            View child = mNotesListView.getChildAt(i);
+            if (child instanceof NotesListItem) {
+                ((NotesListItem) child).updateTime(now);
+            }
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(mNotesObserver);
+        super.onDestroy();
     }
 
     private void initResources() {
@@ -220,6 +303,41 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         mNotesListView.setOnItemLongClickListener(this);
         mNotesListAdapter = new NotesListAdapter(this);
         mNotesListView.setAdapter(mNotesListAdapter);
+        mNotesListView.setOnScrollListener(new OnScrollListener() {
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                if (scrollState == OnScrollListener.SCROLL_STATE_IDLE) {
+                    prefetchVisibleNotes();
+                }
+            }
+
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                    int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= totalItemCount
+                        - NOTES_LIST_PREFETCH_ROWS) {
+                    startAsyncNextPageQuery();
+                }
+            }
+        });
+        mHasMorePages = false;
+        mLoadingPage = false;
+        mListGeneration = 0;
+        mListDirty = true;
+        mStarted = false;
+        mPrefetching = false;
+        mPrefetchPending = false;
+        mNotesObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                if (mStarted) {
+                    reloadNotesList();
+                } else {
+                    mListDirty = true;
+                }
+            }
+        };
+        mContentResolver.registerContentObserver(Notes.CONTENT_NOTE_URI, true, mNotesObserver);
+        // the folder menus and checks read the index on the UI thread once it is loaded
+        FolderIndex.getInstance(this).preload();
         mAddNewNote = (Button) findViewById(R.id.btn_new_note);
         mAddNewNote.setOnClickListener(this);
         mAddNewNote.setOnTouchListener(new NewNoteOnTouchListener());
@@ -240,12 +358,17 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
             getMenuInflater().inflate(R.menu.note_list_options, menu);
             menu.findItem(R.id.delete).setOnMenuItemClickListener(this);
             mMoveMenu = menu.findItem(R.id.move);
-            if (mFocusNoteDataItem.getParentId() == Notes.ID_CALL_RECORD_FOLDER
-                    || DataUtils.getUserFolderCount(mContentResolver) == 0) {
-                mMoveMenu.setVisible(false);
-            } else {
-                mMoveMenu.setVisible(true);
+            mMoveMenu.setVisible(false);
+            if (mFocusNoteDataItem.getParentId() != Notes.ID_CALL_RECORD_FOLDER) {
                 mMoveMenu.setOnMenuItemClickListener(this);
+                final MenuItem moveMenu = mMoveMenu;
+                // shown once the folders are known
+                FolderIndex.getInstance(NotesListActivity.this).whenLoaded(new Runnable() {
+                    public void run() {
+                        moveMenu.setVisible(FolderIndex.getInstance(NotesListActivity.this)
+                                .getUserFolderCount() > 0);
+                    }
+                });
             }
             mActionMode = mode;
             mNotesListAdapter.setChoiceMode(true);
@@ -409,12 +532,189 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     };
 
     private void startAsyncNotesListQuery() {
+        startAsyncNotesListQuery(NOTES_LIST_PAGE_SIZE);
+    }
+
+    /**
+     * Reload as many rows as already shown to keep the scroll position
+     */
+    private void reloadNotesList() {
+        startAsyncNotesListQuery(Math.max(NOTES_LIST_PAGE_SIZE, mNotesListAdapter.getCount()));
+    }
+
+    private void startAsyncNotesListQuery(int limit) {
         String selection = (mCurrentFolderId == Notes.ID_ROOT_FOLDER) ? ROOT_FOLDER_SELECTION
                 : NORMAL_SELECTION;
-        mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_QUERY_TOKEN, null,
-                Notes.CONTENT_NOTE_URI, NoteItemData.PROJECTION, selection, new String[] {
-                    String.valueOf(mCurrentFolderId)
-                }, NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
+        Uri uri = Notes.CONTENT_NOTE_LIST_URI.buildUpon()
+                .appendQueryParameter(Notes.PARAM_LIMIT, String.valueOf(limit)).build();
+        // the pages queried before would be appended to the reloaded list
+        mLoadingPage = false;
+        mListDirty = false;
+        mListGeneration++;
+        new NotesListLoadTask(mListGeneration, uri, selection, limit, false).execute();
+
+        startAsyncNotesCountQuery();
+    }
+
+    /**
+     * Count the notes of the folder with an aggregate query instead of walking the list,
+     * which only holds the pages loaded so far
+     */
+    private void startAsyncNotesCountQuery() {
+        mBackgroundQueryHandler.cancelOperation(FOLDER_NOTE_COUNT_QUERY_TOKEN);
+        mBackgroundQueryHandler.startQuery(FOLDER_NOTE_COUNT_QUERY_TOKEN, new long[] {
+                mListGeneration
+        }, Notes.CONTENT_NOTE_URI, new String[] {
+            "COUNT(*)"
+        }, NOTES_COUNT_SELECTION, new String[] {
+            String.valueOf(mCurrentFolderId)
+        }, null);
+    }
+
+    private void startAsyncNextPageQuery() {
+        if (!mHasMorePages || mLoadingPage) {
+            return;
+        }
+        NoteItemData last = mNotesListAdapter.getLastItem();
+        if (last == null) {
+            return;
+        }
+        String selection = (mCurrentFolderId == Notes.ID_ROOT_FOLDER) ? ROOT_FOLDER_SELECTION
+                : NORMAL_SELECTION;
+        Uri uri = Notes.CONTENT_NOTE_LIST_URI.buildUpon()
+                .appendQueryParameter(Notes.PARAM_LIMIT, String.valueOf(NOTES_LIST_PAGE_SIZE))
+                .appendQueryParameter(Notes.PARAM_AFTER_TYPE, String.valueOf(last.getType()))
+                .appendQueryParameter(Notes.PARAM_AFTER_MODIFIED_DATE,
+                        String.valueOf(last.getModifiedDate()))
+                .appendQueryParameter(Notes.PARAM_AFTER_ID, String.valueOf(last.getId()))
+                .build();
+        mLoadingPage = true;
+        new NotesListLoadTask(mListGeneration, uri, selection, NOTES_LIST_PAGE_SIZE, true)
+                .execute();
+    }
+
+    /**
+     * A page queried before the list was reloaded must not be appended to the new list
+     */
+    private boolean isCurrentListQuery(Object cookie) {
+        return ((long[]) cookie)[0] == mListGeneration;
+    }
+
+    /**
+     * Query a page of the notes list and build its row snapshots off the UI thread, the rows
+     * which have not changed keep the snapshots shown so they are not bound again
+     */
+    private class NotesListLoadTask extends AsyncTask<Void, Void, List<NoteItemData>> {
+        private final long mGeneration;
+        private final Uri mUri;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final int mLimit;
+        private final boolean mAppend;
+        private final List<NoteItemData> mShownItems;
+        private int mRowCount;
+
+        public NotesListLoadTask(long generation, Uri uri, String selection, int limit,
+                boolean append) {
+            mGeneration = generation;
+            mUri = uri;
+            mSelection = selection;
+            mSelectionArgs = new String[] {
+                String.valueOf(mCurrentFolderId)
+            };
+            mLimit = limit;
+            mAppend = append;
+            mShownItems = mNotesListAdapter.getItems();
+        }
+
+        @Override
+        protected List<NoteItemData> doInBackground(Void... unused) {
+            Cursor cursor = mContentResolver.query(mUri, NoteItemData.PROJECTION, mSelection,
+                    mSelectionArgs, NOTES_LIST_SORT_ORDER);
+            if (cursor == null) {
+                Log.e(TAG, "Query notes list failed");
+                return null;
+            }
+            ArrayList<NoteItemData> rows;
+            try {
+                mRowCount = cursor.getCount();
+                rows = new ArrayList<NoteItemData>(mRowCount
+                        + (mAppend ? mShownItems.size() : 0));
+                if (mAppend) {
+                    rows.addAll(mShownItems);
+                }
+                while (cursor.moveToNext()) {
+                    rows.add(new NoteItemData(NotesListActivity.this, cursor));
+                }
+            } finally {
+                cursor.close();
+            }
+            return NotesListAdapter.buildItems(mShownItems, rows);
+        }
+
+        @Override
+        protected void onPostExecute(List<NoteItemData> items) {
+            if (mGeneration != mListGeneration) {
+                return;
+            }
+            if (mAppend) {
+                mLoadingPage = false;
+            }
+            if (items == null) {
+                return;
+            }
+            mHasMorePages = (mRowCount >= mLimit);
+            mNotesListAdapter.setItems(items);
+            prefetchVisibleNotes();
+        }
+    }
+
+    /**
+     * Load the notes shown by the idle list into the note repository, so opening one of them
+     * needs no query on the UI thread
+     */
+    private void prefetchVisibleNotes() {
+        if (mPrefetching) {
+            mPrefetchPending = true;
+            return;
+        }
+        List<NoteItemData> items = mNotesListAdapter.getItems();
+        int first = Math.max(0, mNotesListView.getFirstVisiblePosition()
+                - mNotesListView.getHeaderViewsCount());
+        int last = Math.min(items.size() - 1, mNotesListView.getLastVisiblePosition()
+                - mNotesListView.getHeaderViewsCount());
+        LongHashSet noteIds = new LongHashSet();
+        for (int i = first; i <= last; i++) {
+            if (items.get(i).getType() == Notes.TYPE_NOTE) {
+                noteIds.add(items.get(i).getId());
+            }
+        }
+        if (noteIds.isEmpty()) {
+            return;
+        }
+
+        final long[] ids = noteIds.toArray();
+        mPrefetching = true;
+        mPrefetchPending = false;
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... unused) {
+                try {
+                    NoteRepository.getInstance(NotesListActivity.this).prefetch(ids);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Prefetch notes failed", e);
+                }
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void result) {
+                mPrefetching = false;
+                if (mPrefetchPending) {
+                    prefetchVisibleNotes();
+                }
+            }
+        }.execute();
     }
 
     private final class BackgroundQueryHandler extends AsyncQueryHandler {
@@ -425,15 +725,14 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         @Override
         protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
             switch (token) {
-                case FOLDER_NOTE_LIST_QUERY_TOKEN:
-                    mNotesListAdapter.changeCursor(cursor);
-                    break;
-                case FOLDER_LIST_QUERY_TOKEN:
-                    if (cursor != null && cursor.getCount() > 0) {
-                        showFolderListMenu(cursor);
-                    } else {
-                        Log.e(TAG, "Query folder failed");
+                case FOLDER_NOTE_COUNT_QUERY_TOKEN:
+                    if (cursor == null) {
+                        break;
+                    }
+                    if (isCurrentListQuery(cookie) && cursor.moveToFirst()) {
+                        mNotesListAdapter.setNotesCount(cursor.getInt(0));
                     }
+                    cursor.close();
                     break;
                 default:
                     return;
@@ -441,15 +740,24 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         }
     }
 
-    private void showFolderListMenu(Cursor cursor) {
+    private void showFolderListMenu(List<Folder> folders) {
         AlertDialog.Builder builder = new AlertDialog.Builder(NotesListActivity.this);
         builder.setTitle(R.string.menu_title_select_folder);
-        final FoldersListAdapter adapter = new FoldersListAdapter(this, cursor);
+        final FoldersListAdapter adapter = new FoldersListAdapter(this, folders);
         builder.setAdapter(adapter, new DialogInterface.OnClickListener() {
 
             public void onClick(DialogInterface dialog, int which) {
-                DataUtils.batchMoveToFolder(mContentResolver,
-                        mNotesListAdapter.getSelectedItemIds(), adapter.getItemId(which));
+                final String selection = mNotesListAdapter
+                        .getSelectedNotesSelection(mCurrentFolderId);
+                final long folderId = adapter.getItemId(which);
+                new AsyncTask<Void, Void, Void>() {
+                    protected Void doInBackground(Void... unused) {
+                        DataUtils.batchMoveToFolder(mContentResolver,
+                                DataUtils.getNoteIds(mContentResolver, selection, null),
+                                folderId);
+                        return null;
+                    }
+                }.execute();
                 Toast.makeText(
                         NotesListActivity.this,
                         getString(R.string.format_move_notes_to_folder,
@@ -470,21 +778,23 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     }
 
     private void batchDelete() {
+        final String selection = mNotesListAdapter.getSelectedNotesSelection(mCurrentFolderId);
         new AsyncTask<Void, Void, HashSet<AppWidgetAttribute>>() {
             protected HashSet<AppWidgetAttribute> doInBackground(Void... unused) {
-                HashSet<AppWidgetAttribute> widgets = mNotesListAdapter.getSelectedWidget();
+                HashSet<AppWidgetAttribute> widgets = DataUtils.getNotesWidget(mContentResolver,
+                        selection, null);
+                HashSet<Long> ids = DataUtils.getNoteIds(mContentResolver, selection, null);
                 if (!isSyncMode()) {
                     // if not synced, delete notes directly
-                    if (DataUtils.batchDeleteNotes(mContentResolver, mNotesListAdapter
-                            .getSelectedItemIds())) {
+                    if (DataUtils.batchDeleteNotes(mContentResolver, ids)) {
                     } else {
                         Log.e(TAG, "Delete notes error, should not happens");
                     }
                 } else {
                     // in sync mode, we'll move the deleted note into the trash
                     // folder
-                    if (!DataUtils.batchMoveToFolder(mContentResolver, mNotesListAdapter
-                            .getSelectedItemIds(), Notes.ID_TRASH_FOLER)) {
+                    if (!DataUtils.batchMoveToFolder(mContentResolver, ids,
+                            Notes.ID_TRASH_FOLER)) {
                         Log.e(TAG, "Move notes to trash folder error, should not happens");
                     }
                 }
@@ -609,31 +919,14 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         positive.setOnClickListener(new OnClickListener() {
             public void onClick(View v) {
                 hideSoftInput(etName);
-                String name = etName.getText().toString();
-                if (DataUtils.checkVisibleFolderName(mContentResolver, name)) {
-                    Toast.makeText(NotesListActivity.this, getString(R.string.folder_exist, name),
-                            Toast.LENGTH_LONG).show();
-                    etName.setSelection(0, etName.length());
-                    return;
-                }
-                if (!create) {
-                    if (!TextUtils.isEmpty(name)) {
-                        ContentValues values = new ContentValues();
-                        values.put(NoteColumns.SNIPPET, name);
-                        values.put(NoteColumns.TYPE, Notes.TYPE_FOLDER);
-                        values.put(NoteColumns.LOCAL_MODIFIED, 1);
-                        mContentResolver.update(Notes.CONTENT_NOTE_URI, values, NoteColumns.ID
-                                + "=?", new String[] {
-                            String.valueOf(mFocusNoteDataItem.getId())
-                        });
+                // the name is checked once the folders are known
+                FolderIndex.getInstance(NotesListActivity.this).whenLoaded(new Runnable() {
+                    public void run() {
+                        if (dialog.isShowing()) {
+                            saveFolderName(dialog, etName, create);
+                        }
                     }
-                } else if (!TextUtils.isEmpty(name)) {
-                    ContentValues values = new ContentValues();
-                    values.put(NoteColumns.SNIPPET, name);
-                    values.put(NoteColumns.TYPE, Notes.TYPE_FOLDER);
-                    mContentResolver.insert(Notes.CONTENT_NOTE_URI, values);
-                }
-                dialog.dismiss();
+                });
             }
         });
 
@@ -664,6 +957,38 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         });
     }
 
+    /**
+     * Create the folder or rename the focused one unless a folder is named the same, called
+     * once the folder index is loaded
+     */
+    private void saveFolderName(Dialog dialog, EditText etName, boolean create) {
+        String name = etName.getText().toString();
+        if (FolderIndex.getInstance(this).containsVisibleName(name)) {
+            Toast.makeText(this, getString(R.string.folder_exist, name),
+                    Toast.LENGTH_LONG).show();
+            etName.setSelection(0, etName.length());
+            return;
+        }
+        if (!create) {
+            if (!TextUtils.isEmpty(name)) {
+                ContentValues values = new ContentValues();
+                values.put(NoteColumns.SNIPPET, name);
+                values.put(NoteColumns.TYPE, Notes.TYPE_FOLDER);
+                values.put(NoteColumns.LOCAL_MODIFIED, 1);
+                mContentResolver.update(Notes.CONTENT_NOTE_URI, values, NoteColumns.ID
+                        + "=?", new String[] {
+                    String.valueOf(mFocusNoteDataItem.getId())
+                });
+            }
+        } else if (!TextUtils.isEmpty(name)) {
+            ContentValues values = new ContentValues();
+            values.put(NoteColumns.SNIPPET, name);
+            values.put(NoteColumns.TYPE, Notes.TYPE_FOLDER);
+            mContentResolver.insert(Notes.CONTENT_NOTE_URI, values);
+        }
+        dialog.dismiss();
+    }
+
     @Override
     public void onBackPressed() {
         switch (mState) {
@@ -918,21 +1243,21 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     }
 
     private void startQueryDestinationFolders() {
-        String selection = NoteColumns.TYPE + "=? AND " + NoteColumns.PARENT_ID + "<>? AND " + NoteColumns.ID + "<>?";
-        selection = (mState == ListEditState.NOTE_LIST) ? selection:
-            "(" + selection + ") OR (" + NoteColumns.ID + "=" + Notes.ID_ROOT_FOLDER + ")";
-
-        mBackgroundQueryHandler.startQuery(FOLDER_LIST_QUERY_TOKEN,
-                null,
-                Notes.CONTENT_NOTE_URI,
-                FoldersListAdapter.PROJECTION,
-                selection,
-                new String[] {
-                        String.valueOf(Notes.TYPE_FOLDER),
-                        String.valueOf(Notes.ID_TRASH_FOLER),
-                        String.valueOf(mCurrentFolderId)
-                },
-                NoteColumns.MODIFIED_DATE + " DESC");
+        // the menu is shown once the folders are known
+        FolderIndex.getInstance(this).whenLoaded(new Runnable() {
+            public void run() {
+                if (isFinishing()) {
+                    return;
+                }
+                List<Folder> folders = FolderIndex.getInstance(NotesListActivity.this)
+                        .getDestinationFolders(mCurrentFolderId);
+                if (folders.size() > 0) {
+                    showFolderListMenu(folders);
+                } else {
+                    Log.e(TAG, "Query folder failed");
+                }
+            }
+        });
     }
 
     public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
@@ -17,26 +17,71 @@
 package net.micode.notes.ui;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.util.Log;
+import android.os.AsyncTask;
+import android.os.Handler;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.BaseAdapter;
 
+import net.micode.notes.data.Contact;
 import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.tool.LongHashSet;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 
 
-public class NotesListAdapter extends CursorAdapter {
+/**
+ * Shows the notes list from immutable row snapshots. The snapshots are built off the UI
+ * thread by {@link #buildItems}, which keeps the snapshot of every row that has not changed,
+ * so a view still showing the same snapshot is not bound again.
+ */
+public class NotesListAdapter extends BaseAdapter {
     private static final String TAG = "NotesListAdapter";
     private Context mContext;
-    private HashMap<Integer, Boolean> mSelectedIndex;
+    private List<NoteItemData> mItems;
+    // the selected note ids, or the ids deselected after select all
+    private LongHashSet mSelectedIds;
+    private boolean mAllSelected;
     private int mNotesCount;
     private boolean mChoiceMode;
+    private Handler mHandler;
+    private HashSet<String> mRequestedCallNumbers;
+    private HashSet<String> mPendingCallNumbers;
+    private boolean mCallNameLookupScheduled;
+
+    /**
+     * Look up the contact names of the call numbers bound since the last lookup in one
+     * background task, and rebind the rows when any name is found
+     */
+    private final Runnable mCallNameLookup = new Runnable() {
+        public void run() {
+            mCallNameLookupScheduled = false;
+            final String[] numbers = mPendingCallNumbers
+                    .toArray(new String[mPendingCallNumbers.size()]);
+            mPendingCallNumbers.clear();
+            new AsyncTask<String, Void, Boolean>() {
+                @Override
+                protected Boolean doInBackground(String... params) {
+                    return !Contact.getContacts(mContext, Arrays.asList(params)).isEmpty();
+                }
+
+                @Override
+                protected void onPostExecute(Boolean found) {
+                    // the names are cached now, even those without contact
+                    mRequestedCallNumbers.removeAll(Arrays.asList(numbers));
+                    if (found) {
+                        refreshCallNames();
+                    }
+                }
+            }.execute(numbers);
+        }
+    };
 
     public static class AppWidgetAttribute {
         public int widgetId;
@@ -44,28 +89,133 @@ public class NotesListAdapter extends CursorAdapter {
     };
 
     public NotesListAdapter(Context context) {
-        super(context, null);
-        mSelectedIndex = new HashMap<Integer, Boolean>();
+        mItems = Collections.emptyList();
+        mSelectedIds = new LongHashSet();
+        mAllSelected = false;
         mContext = context;
         mNotesCount = 0;
+        mHandler = new Handler();
+        mRequestedCallNumbers = new HashSet<String>();
+        mPendingCallNumbers = new HashSet<String>();
+        mCallNameLookupScheduled = false;
     }
 
-    @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return new NotesListItem(context);
+    /**
+     * Build the rows to show from the rows queried, it should be called off the UI thread.
+     * Each row is placed at its position, and a row the same as the one shown is replaced by
+     * the shown one.
+     * @return the rows shown if none of them has changed
+     */
+    public static List<NoteItemData> buildItems(List<NoteItemData> shownItems,
+            List<NoteItemData> rows) {
+        HashMap<Long, NoteItemData> shown = new HashMap<Long, NoteItemData>();
+        for (NoteItemData item : shownItems) {
+            shown.put(item.getId(), item);
+        }
+
+        boolean changed = (rows.size() != shownItems.size());
+        ArrayList<NoteItemData> items = new ArrayList<NoteItemData>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            NoteItemData item = rows.get(i).atPosition(rows, i);
+            NoteItemData shownItem = shown.get(item.getId());
+            if (shownItem != null && shownItem.isSameAs(item)) {
+                item = shownItem;
+            }
+            if (!changed && item != shownItems.get(i)) {
+                changed = true;
+            }
+            items.add(item);
+        }
+        return changed ? Collections.unmodifiableList(items) : shownItems;
+    }
+
+    public List<NoteItemData> getItems() {
+        return mItems;
+    }
+
+    public void setItems(List<NoteItemData> items) {
+        if (items == mItems) {
+            return;
+        }
+        mItems = items;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * @return the last loaded row, or null if nothing is loaded
+     */
+    public NoteItemData getLastItem() {
+        int count = mItems.size();
+        return count == 0 ? null : mItems.get(count - 1);
+    }
+
+    public int getCount() {
+        return mItems.size();
+    }
+
+    public NoteItemData getItem(int position) {
+        return mItems.get(position);
+    }
+
+    public long getItemId(int position) {
+        return mItems.get(position).getId();
     }
 
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        if (view instanceof NotesListItem) {
-            NoteItemData itemData = new NoteItemData(context, cursor);
-            ((NotesListItem) view).bind(context, itemData, mChoiceMode,
-                    isSelectedItem(cursor.getPosition()));
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    public View getView(int position, View convertView, ViewGroup parent) {
+        NotesListItem view = (convertView instanceof NotesListItem) ? (NotesListItem) convertView
+                : new NotesListItem(mContext);
+        NoteItemData itemData = mItems.get(position);
+        boolean checked = isSelectedItem(position);
+        if (!view.isShowing(itemData, mChoiceMode, checked)) {
+            view.bind(mContext, itemData, mChoiceMode, checked);
+        }
+        if (itemData.isCallRecord() && !itemData.isCallNameResolved()) {
+            requestCallName(itemData.getCallNumber());
+        }
+        return view;
+    }
+
+    private void refreshCallNames() {
+        ArrayList<NoteItemData> items = null;
+        for (int i = 0; i < mItems.size(); i++) {
+            NoteItemData item = mItems.get(i);
+            NoteItemData refreshed = item.withCachedCallName();
+            if (refreshed != item) {
+                if (items == null) {
+                    items = new ArrayList<NoteItemData>(mItems);
+                }
+                items.set(i, refreshed);
+            }
+        }
+        if (items != null) {
+            setItems(Collections.unmodifiableList(items));
+        }
+    }
+
+    private void requestCallName(String phoneNumber) {
+        // skip the numbers being looked up
+        if (!mRequestedCallNumbers.add(phoneNumber)) {
+            return;
+        }
+        mPendingCallNumbers.add(phoneNumber);
+        if (!mCallNameLookupScheduled) {
+            mCallNameLookupScheduled = true;
+            mHandler.post(mCallNameLookup);
         }
     }
 
     public void setCheckedItem(final int position, final boolean checked) {
-        mSelectedIndex.put(position, checked);
+        long id = getItemId(position);
+        if (checked != mAllSelected) {
+            mSelectedIds.add(id);
+        } else {
+            mSelectedIds.remove(id);
+        }
         notifyDataSetChanged();
     }
 
@@ -74,73 +224,60 @@ public class NotesListAdapter extends CursorAdapter {
     }
 
     public void setChoiceMode(boolean mode) {
-        mSelectedIndex.clear();
+        mSelectedIds.clear();
+        mAllSelected = false;
         mChoiceMode = mode;
     }
 
+    /**
+     * Select or deselect every note of the folder, including the pages not loaded yet
+     */
     public void selectAll(boolean checked) {
-        Cursor cursor = getCursor();
-        for (int i = 0; i < getCount(); i++) {
-            if (cursor.moveToPosition(i)) {
-                if (NoteItemData.getNoteType(cursor) == Notes.TYPE_NOTE) {
-                    setCheckedItem(i, checked);
-                }
-            }
-        }
+        mAllSelected = checked;
+        mSelectedIds.clear();
+        notifyDataSetChanged();
     }
 
-    public HashSet<Long> getSelectedItemIds() {
-        HashSet<Long> itemSet = new HashSet<Long>();
-        for (Integer position : mSelectedIndex.keySet()) {
-            if (mSelectedIndex.get(position) == true) {
-                Long id = getItemId(position);
-                if (id == Notes.ID_ROOT_FOLDER) {
-                    Log.d(TAG, "Wrong item id, should not happen");
-                } else {
-                    itemSet.add(id);
-                }
+    /**
+     * Get the selection over the note table which matches the selected notes of the folder,
+     * so they are read by one query when the action is run
+     */
+    public String getSelectedNotesSelection(long folderId) {
+        StringBuilder selection = new StringBuilder();
+        if (mAllSelected) {
+            selection.append(NoteColumns.PARENT_ID).append("=").append(folderId)
+                    .append(" AND ").append(NoteColumns.TYPE).append("=").append(Notes.TYPE_NOTE);
+            if (mSelectedIds.isEmpty()) {
+                return selection.toString();
             }
+            selection.append(" AND ").append(NoteColumns.ID).append(" NOT IN (");
+        } else {
+            selection.append(NoteColumns.ID).append(" IN (");
         }
-
-        return itemSet;
-    }
-
-    public HashSet<AppWidgetAttribute> getSelectedWidget() {
-        HashSet<AppWidgetAttribute> itemSet = new HashSet<AppWidgetAttribute>();
-        for (Integer position : mSelectedIndex.keySet()) {
-            if (mSelectedIndex.get(position) == true) {
-                Cursor c = (Cursor) getItem(position);
-                if (c != null) {
-                    AppWidgetAttribute widget = new AppWidgetAttribute();
-                    NoteItemData item = new NoteItemData(mContext, c);
-                    widget.widgetId = item.getWidgetId();
-                    widget.widgetType = item.getWidgetType();
-                    itemSet.add(widget);
-                    /**
-                     * Don't close cursor here, only the adapter could close it
-                     */
-                } else {
-                    Log.e(TAG, "Invalid cursor");
-                    return null;
-                }
+        long[] ids = mSelectedIds.toArray();
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                selection.append(",");
             }
+            selection.append(ids[i]);
         }
-        return itemSet;
+        selection.append(")");
+        return selection.toString();
     }
 
     public int getSelectedCount() {
-        Collection<Boolean> values = mSelectedIndex.values();
-        if (null == values) {
-            return 0;
-        }
-        Iterator<Boolean> iter = values.iterator();
-        int count = 0;
-        while (iter.hasNext()) {
-            if (true == iter.next()) {
-                count++;
-            }
+        if (mAllSelected) {
+            return Math.max(0, mNotesCount - mSelectedIds.size());
         }
-        return count;
+        return mSelectedIds.size();
+    }
+
+    /**
+     * Set the number of notes in the folder, it is counted by the provider since only some
+     * pages of the folder are loaded
+     */
+    public void setNotesCount(int count) {
+        mNotesCount = count;
     }
 
     public boolean isAllSelected() {
@@ -149,36 +286,6 @@ public class NotesListAdapter extends CursorAdapter {
     }
 
     public boolean isSelectedItem(final int position) {
-        if (null == mSelectedIndex.get(position)) {
-            return false;
-        }
-        return mSelectedIndex.get(position);
-    }
-
-    @Override
-    protected void onContentChanged() {
-        super.onContentChanged();
-        calcNotesCount();
-    }
-
-    @Override
-    public void changeCursor(Cursor cursor) {
-        super.changeCursor(cursor);
-        calcNotesCount();
-    }
-
-    private void calcNotesCount() {
-        mNotesCount = 0;
-        for (int i = 0; i < getCount(); i++) {
-            Cursor c = (Cursor) getItem(i);
-            if (c != null) {
-                if (NoteItemData.getNoteType(c) == Notes.TYPE_NOTE) {
-                    mNotesCount++;
-                }
-            } else {
-                Log.e(TAG, "Invalid cursor");
-                return;
-            }
-        }
+        return mSelectedIds.contains(getItemId(position)) != mAllSelected;
     }
 }
@@ -17,7 +17,7 @@
 package net.micode.notes.ui;
 
 import android.content.Context;
-import android.text.format.DateUtils;
+import android.text.TextUtils;
 import android.view.View;
 import android.widget.CheckBox;
 import android.widget.ImageView;
@@ -26,7 +26,6 @@ import android.widget.TextView;
 
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
-import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.ResourceParser.NoteItemBgResources;
 
 
@@ -37,6 +36,14 @@ public class NotesListItem extends LinearLayout {
     private TextView mCallName;
     private NoteItemData mItemData;
     private CheckBox mCheckBox;
+    private boolean mChoiceMode;
+    private boolean mChecked;
+    private int mTitleAppearance;
+
+    /**
+     * The relative time shown, it is not set again while it reads the same
+     */
+    private CharSequence mShownTime;
 
     public NotesListItem(Context context) {
         super(context);
@@ -57,18 +64,19 @@ public class NotesListItem extends LinearLayout {
         }
 
         mItemData = data;
+        mChoiceMode = choiceMode;
+        mChecked = checked;
         if (data.getId() == Notes.ID_CALL_RECORD_FOLDER) {
             mCallName.setVisibility(View.GONE);
             mAlert.setVisibility(View.VISIBLE);
-            mTitle.setTextAppearance(context, R.style.TextAppearancePrimaryItem);
-            mTitle.setText(context.getString(R.string.call_record_folder_name)
-                    + context.getString(R.string.format_folder_files_count, data.getNotesCount()));
+            setTitleAppearance(context, R.style.TextAppearancePrimaryItem);
+            mTitle.setText(data.getTitle());
             mAlert.setImageResource(R.drawable.call_record);
         } else if (data.getParentId() == Notes.ID_CALL_RECORD_FOLDER) {
             mCallName.setVisibility(View.VISIBLE);
             mCallName.setText(data.getCallName());
-            mTitle.setTextAppearance(context,R.style.TextAppearanceSecondaryItem);
-            mTitle.setText(DataUtils.getFormattedSnippet(data.getSnippet()));
+            setTitleAppearance(context, R.style.TextAppearanceSecondaryItem);
+            mTitle.setText(data.getTitle());
             if (data.hasAlert()) {
                 mAlert.setImageResource(R.drawable.clock);
                 mAlert.setVisibility(View.VISIBLE);
@@ -77,15 +85,12 @@ public class NotesListItem extends LinearLayout {
             }
         } else {
             mCallName.setVisibility(View.GONE);
-            mTitle.setTextAppearance(context, R.style.TextAppearancePrimaryItem);
+            setTitleAppearance(context, R.style.TextAppearancePrimaryItem);
+            mTitle.setText(data.getTitle());
 
             if (data.getType() == Notes.TYPE_FOLDER) {
-                mTitle.setText(data.getSnippet()
-                        + context.getString(R.string.format_folder_files_count,
-                                data.getNotesCount()));
                 mAlert.setVisibility(View.GONE);
             } else {
-                mTitle.setText(DataUtils.getFormattedSnippet(data.getSnippet()));
                 if (data.hasAlert()) {
                     mAlert.setImageResource(R.drawable.clock);
                     mAlert.setVisibility(View.VISIBLE);
@@ -94,11 +99,35 @@ public class NotesListItem extends LinearLayout {
                 }
             }
         }
-        mTime.setText(DateUtils.getRelativeTimeSpanString(data.getModifiedDate()));
+        setTime(data.getRelativeTime(System.currentTimeMillis()));
 
         setBackground(data);
     }
 
+    /**
+     * Refresh the relative modified time shown, the text is only set again when it reads
+     * differently, which is at most once a minute
+     */
+    public void updateTime(long now) {
+        if (mItemData != null) {
+            setTime(mItemData.getRelativeTime(now));
+        }
+    }
+
+    private void setTime(CharSequence time) {
+        if (!TextUtils.equals(mShownTime, time)) {
+            mTime.setText(time);
+            mShownTime = time;
+        }
+    }
+
+    private void setTitleAppearance(Context context, int resId) {
+        if (mTitleAppearance != resId) {
+            mTitle.setTextAppearance(context, resId);
+            mTitleAppearance = resId;
+        }
+    }
+
     private void setBackground(NoteItemData data) {
         int id = data.getBgColorId();
         if (data.getType() == Notes.TYPE_NOTE) {
@@ -119,4 +148,12 @@ public class NotesListItem extends LinearLayout {
     public NoteItemData getItemData() {
         return mItemData;
     }
+
+    /**
+     * @return true if the item is already bound with the same state, the snapshots of the
+     *         list rows are immutable so the same instance shows the same
+     */
+    public boolean isShowing(NoteItemData data, boolean choiceMode, boolean checked) {
+        return mItemData == data && mChoiceMode == choiceMode && mChecked == checked;
+    }
 }
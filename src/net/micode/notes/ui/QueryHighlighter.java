@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.ui;
+
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.TextUtils;
+import android.text.style.BackgroundColorSpan;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Highlights the terms of a search query in the text of a note. The terms are the words of
+ * the query taken literally, matched case-insensitively, and the text is scanned once with
+ * the longest term matching at each position. The match offsets of the search index are not
+ * used, the indexed text of a check list has no item tags so they do not line up with the
+ * text of the editor.
+ */
+public class QueryHighlighter {
+    private static final Comparator<char[]> LONGEST_FIRST = new Comparator<char[]>() {
+        public int compare(char[] lhs, char[] rhs) {
+            return rhs.length - lhs.length;
+        }
+    };
+
+    private final int mColor;
+
+    /**
+     * The folded terms keyed by their first character, the longest first
+     */
+    private final SparseArray<char[][]> mTermsByFirstChar;
+
+    /**
+     * @param query the user query, null or empty to highlight nothing
+     * @param color the background color of the terms
+     */
+    public QueryHighlighter(String query, int color) {
+        mColor = color;
+        mTermsByFirstChar = new SparseArray<char[][]>();
+        if (TextUtils.isEmpty(query)) {
+            return;
+        }
+
+        SparseArray<ArrayList<char[]>> terms = new SparseArray<ArrayList<char[]>>();
+        for (String word : query.trim().split("\\s+")) {
+            if (word.length() == 0) {
+                continue;
+            }
+            char[] term = fold(word);
+            ArrayList<char[]> list = terms.get(term[0]);
+            if (list == null) {
+                list = new ArrayList<char[]>();
+                terms.put(term[0], list);
+            }
+            list.add(term);
+        }
+        for (int i = 0; i < terms.size(); i++) {
+            char[][] list = terms.valueAt(i).toArray(new char[0][]);
+            Arrays.sort(list, LONGEST_FIRST);
+            mTermsByFirstChar.put(terms.keyAt(i), list);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mTermsByFirstChar.size() == 0;
+    }
+
+    /**
+     * @return the text with a background span over every match of the terms
+     */
+    public Spannable highlight(String text) {
+        SpannableString spannable = new SpannableString(text == null ? "" : text);
+        if (isEmpty() || TextUtils.isEmpty(text)) {
+            return spannable;
+        }
+
+        char[] folded = fold(text);
+        int i = 0;
+        while (i < folded.length) {
+            int length = matchAt(folded, i);
+            if (length > 0) {
+                spannable.setSpan(new BackgroundColorSpan(mColor), i, i + length,
+                        Spannable.SPAN_INCLUSIVE_EXCLUSIVE);
+                i += length;
+            } else {
+                i++;
+            }
+        }
+        return spannable;
+    }
+
+    /**
+     * @return the length of the longest term at the offset of the text, or 0
+     */
+    private int matchAt(char[] text, int offset) {
+        char[][] terms = mTermsByFirstChar.get(text[offset]);
+        if (terms == null) {
+            return 0;
+        }
+        for (char[] term : terms) {
+            if (offset + term.length > text.length) {
+                continue;
+            }
+            int j = 1;
+            while (j < term.length && text[offset + j] == term[j]) {
+                j++;
+            }
+            if (j == term.length) {
+                return term.length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Fold the case of every character, unlike {@link String#toLowerCase} the length of the
+     * text is kept so the offsets match the original text
+     */
+    private static char[] fold(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return chars;
+    }
+}